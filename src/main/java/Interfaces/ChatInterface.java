@@ -5,19 +5,41 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
 import UI.RoundedBorder;
-import okhttp3.*;
 import org.json.JSONObject;
 import org.json.JSONArray;
-import org.json.JSONException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.IOException;
 import org.kordamp.ikonli.swing.FontIcon;
 import org.kordamp.ikonli.fontawesome.FontAwesome;
+import services.AdaptivePoller;
+import services.ChatExporter;
+import services.Codecs;
+import services.ConditionalGet;
+import services.Connectivity;
+import services.ContentCache;
 import services.FirebaseAuthService;
+import services.FirebaseStream;
+import services.KeyGenerator;
+import services.MembershipIndex;
+import services.MessageLog;
+import services.MessageOutbox;
+import services.OfflineStore;
+import services.SnapshotCache;
+import services.SyncCursors;
+import services.WeightedLruCache;
+import services.WriteBatch;
 import java.io.File;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
 import java.awt.GridBagLayout;
@@ -28,7 +50,11 @@ import com.google.firebase.cloud.StorageClient;
 import java.awt.image.BufferedImage;
 import UI.UserListRenderer;
 import UI.ModernChatListRenderer;
+import UI.ChatListModel;
 import model.Message;
+import model.DayIndex;
+import model.MessageStore;
+import model.TextStorage;
 import model.UserInfo;
 import model.GroupInfo;
 import model.ChatItem;
@@ -41,17 +67,51 @@ public class ChatInterface extends JFrame {
     private JButton emojiButton;
     private JButton fileButton;
     private JList<ChatItem> chatList;
-    private DefaultListModel<ChatItem> chatListModel;
+    private ChatListModel chatListModel;
     private String currentUserEmail;
     private ChatItem currentChat;
     private JLabel chattingWithLabel;
     private JLabel onlineStatusLabel;
     private JScrollPane chatScrollPane;
-    private ScheduledExecutorService scheduler;
+    private AdaptivePoller poller;
+    // The chat the poller works for; its ETag and counts are dropped when polling stops
+    private String polledChatId;
     private String lastLoadedChatId = null;
+    private FirebaseStream messageStream;
+    // Chat whose full history is in chatMessages; polls for it can fetch deltas only
+    private volatile String syncedChatId = null;
+    private MessageStore chatMessages = newMessageStore();
+    // Day (local midnight millis) of the last bubble rendered, and the separators shown so far
+    private long lastRenderedDay = -1;
+    private Map<Long, JComponent> daySeparators = new HashMap<>();
+    // Separator labels are formatted once per day, not once per message
+    private final Map<Long, String> dayLabels = new HashMap<>();
+    // Scroll-back paging state for the open chat
+    private String oldestLoadedKey = null;
+    private boolean hasOlderMessages = false;
+    private boolean loadingOlderMessages = false;
+    // Set after jumping to a date: the view holds an older window and pages forward on scroll
+    private boolean hasNewerMessages = false;
+    private boolean loadingNewerMessages = false;
+    private int lastScrollValue = 0;
+    // Chats opened earlier, kept with their rendered bubbles so switching back costs no fetch
+    // and no layout of new components; weighed in bytes, least recently viewed evicted first
+    private final WeightedLruCache<String, ChatView> chatCache = new WeightedLruCache<>(
+            FirebaseAuthService.getIntSetting("CHAT_CACHE_MB", 64) * (1L << 20),
+            ChatView::sizeInBytes, (chatId, view) -> view.messages.release());
     private JTextField searchField;
-    private Map<String, UserInfo> userCache = new HashMap<>();
-    private Map<String, GroupInfo> groupCache = new HashMap<>();
+    // Shown above the messages while the network is down
+    private JLabel offlineBanner;
+    private final Connectivity.Listener connectivityListener =
+            online -> SwingUtilities.invokeLater(() -> onConnectivityChange(online));
+    // Guards the chat list against the saved copy landing after the server's
+    private final Object chatListLock = new Object();
+    private boolean chatListFromServer = false;
+    // Lock-free snapshots; the chat list follows their change notifications
+    private final SnapshotCache<String, UserInfo> userCache = new SnapshotCache<>(ChatInterface::sameUser);
+    private final SnapshotCache<String, GroupInfo> groupCache = new SnapshotCache<>(ChatInterface::sameGroup);
+    // Membership of every group we have seen, not only the ones in groupCache
+    private final MembershipIndex membership = new MembershipIndex();
 
     // Theme colors (same as login)
     private static final Color PRIMARY_COLOR = new Color(41, 128, 185);
@@ -65,13 +125,57 @@ public class ChatInterface extends JFrame {
     private static final Color ONLINE_GREEN = new Color(52, 199, 89);
     private static final Color GROUP_COLOR = new Color(155, 89, 182);
 
+    // History paging, overridable in config.properties
+    private static final int MESSAGE_PAGE_SIZE = FirebaseAuthService.getIntSetting("MESSAGE_PAGE_SIZE", 50);
+    private static final int HISTORY_PREFETCH_PX = FirebaseAuthService.getIntSetting("HISTORY_PREFETCH_PX", 300);
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("MMMM d, yyyy");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("h:mm a");
+    // Heap held by one rendered bubble, mostly the view tree of its HTML label (measured
+    // at about 24 KB whatever the text length)
+    private static final long RENDERED_COMPONENT_BYTES = 24 * 1024;
+
+    // What an opened chat leaves behind when another one is selected: its messages, the
+    // components built for them and where the view was scrolled to
+    private static class ChatView {
+        final MessageStore messages;
+        final JPanel panel;
+        final Map<Long, JComponent> daySeparators;
+        final long lastRenderedDay;
+        final String oldestLoadedKey;
+        final boolean hasOlderMessages;
+        final boolean hasNewerMessages;
+        final int scrollValue;
+        final boolean atBottom;
+
+        ChatView(MessageStore messages, JPanel panel, Map<Long, JComponent> daySeparators, long lastRenderedDay,
+                 String oldestLoadedKey, boolean hasOlderMessages, boolean hasNewerMessages,
+                 int scrollValue, boolean atBottom) {
+            this.messages = messages;
+            this.panel = panel;
+            this.daySeparators = daySeparators;
+            this.lastRenderedDay = lastRenderedDay;
+            this.oldestLoadedKey = oldestLoadedKey;
+            this.hasOlderMessages = hasOlderMessages;
+            this.hasNewerMessages = hasNewerMessages;
+            this.scrollValue = scrollValue;
+            this.atBottom = atBottom;
+        }
+
+        long sizeInBytes() {
+            return messages.sizeInBytes() + panel.getComponentCount() * RENDERED_COMPONENT_BYTES;
+        }
+    }
+
     public ChatInterface(String currentUserEmail) {
         this.currentUserEmail = currentUserEmail;
         setupLookAndFeel();
         initializeComponents();
         setupLayout();
         setupEventListeners();
+        Connectivity.addListener(connectivityListener);
+        showSavedChatList();
         fetchUsersAndGroups();
+        MessageOutbox.start();
     }
 
     private void setupLookAndFeel() {
@@ -92,7 +196,7 @@ public class ChatInterface extends JFrame {
         setLocationRelativeTo(null);
         setMinimumSize(new Dimension(900, 600));
         getContentPane().setBackground(BACKGROUND_COLOR);
-        chatListModel = new DefaultListModel<>();
+        chatListModel = new ChatListModel();
         chatList = new JList<>(chatListModel);
         chatPanel = new JPanel();
         inputField = new JTextField();
@@ -267,10 +371,22 @@ public class ChatInterface extends JFrame {
                 showUserInfo();
             }
         });
+        JButton jumpToDate = createHeaderButton(FontIcon.of(FontAwesome.CALENDAR, 20, PRIMARY_COLOR));
+        jumpToDate.setToolTipText("Jump to date");
+        jumpToDate.addActionListener(e -> showJumpToDateDialog());
         JButton videoCall = createHeaderButton(FontIcon.of(FontAwesome.VIDEO_CAMERA, 20, PRIMARY_COLOR));
         JButton voiceCall = createHeaderButton(FontIcon.of(FontAwesome.PHONE, 20, PRIMARY_COLOR));
         JButton moreOptions = createHeaderButton(FontIcon.of(FontAwesome.ELLIPSIS_H, 20, PRIMARY_COLOR));
+        moreOptions.addActionListener(e -> {
+            JPopupMenu menu = new JPopupMenu();
+            JMenuItem export = new JMenuItem("Export chat...");
+            export.setEnabled(currentChat != null);
+            export.addActionListener(ev -> exportCurrentChat());
+            menu.add(export);
+            menu.show(moreOptions, 0, moreOptions.getHeight());
+        });
         actions.add(infoButton);
+        actions.add(jumpToDate);
         actions.add(videoCall);
         actions.add(voiceCall);
         actions.add(moreOptions);
@@ -301,23 +417,55 @@ public class ChatInterface extends JFrame {
     }
 
     private JPanel createChatArea() {
-        chatPanel = new JPanel();
-        chatPanel.setLayout(new BoxLayout(chatPanel, BoxLayout.Y_AXIS));
-        chatPanel.setBackground(BACKGROUND_COLOR);
-        chatPanel.setBorder(new EmptyBorder(20, 25, 20, 25));
+        chatPanel = createChatPanel();
         chatScrollPane = new JScrollPane(chatPanel);
         chatScrollPane.setBorder(null);
         chatScrollPane.setBackground(BACKGROUND_COLOR);
         chatScrollPane.getViewport().setBackground(BACKGROUND_COLOR);
         chatScrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        chatScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            // Only react to the user scrolling towards either end, not to content growing
+            int value = e.getValue();
+            boolean scrollingUp = value < lastScrollValue;
+            boolean scrollingDown = value > lastScrollValue;
+            lastScrollValue = value;
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (scrollingUp && value <= HISTORY_PREFETCH_PX) {
+                loadOlderMessages();
+            } else if (scrollingDown && bar.getMaximum() - value - bar.getVisibleAmount() <= HISTORY_PREFETCH_PX) {
+                loadNewerMessages();
+            }
+        });
         chatScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         chatScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        offlineBanner = new JLabel();
+        offlineBanner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        offlineBanner.setForeground(Color.WHITE);
+        offlineBanner.setBackground(ACCENT_COLOR);
+        offlineBanner.setOpaque(true);
+        offlineBanner.setHorizontalAlignment(JLabel.CENTER);
+        offlineBanner.setBorder(new EmptyBorder(6, 10, 6, 10));
+        offlineBanner.setVisible(false);
         JPanel wrapper = new JPanel(new BorderLayout());
         wrapper.setBackground(BACKGROUND_COLOR);
+        wrapper.add(offlineBanner, BorderLayout.NORTH);
         wrapper.add(chatScrollPane);
         return wrapper;
     }
 
+    // Each opened chat renders into a panel of its own, which the chat cache can keep
+    private JPanel createChatPanel() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        panel.setBackground(BACKGROUND_COLOR);
+        panel.setBorder(new EmptyBorder(20, 25, 20, 25));
+        return panel;
+    }
+
+    private static MessageStore newMessageStore() {
+        return new MessageStore(TextStorage.create(FirebaseAuthService.getSetting("MESSAGE_TEXT_STORAGE", "heap")));
+    }
+
     private JPanel createInputArea() {
         JPanel inputArea = new JPanel(new BorderLayout());
         inputArea.setBackground(Color.WHITE);
@@ -391,6 +539,9 @@ public class ChatInterface extends JFrame {
     }
 
     private void setupEventListeners() {
+        userCache.addListener(diff -> applyChatListDiff(diff, false), FirebaseAuthService.EDT);
+        groupCache.addListener(diff -> applyChatListDiff(diff, true), FirebaseAuthService.EDT);
+
         chatList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 currentChat = chatList.getSelectedValue();
@@ -406,7 +557,6 @@ public class ChatInterface extends JFrame {
                         onlineStatusLabel.setText(user.status.equals("online") ? "● Online" : "Last seen recently");
                         onlineStatusLabel.setForeground(user.status.equals("online") ? ONLINE_GREEN : TEXT_COLOR);
                     }
-                    clearChatPanel();
                     startMessageListener();
                 } else {
                     chattingWithLabel.setText("Select a conversation");
@@ -428,112 +578,172 @@ public class ChatInterface extends JFrame {
                 stopMessageListener();
                 System.exit(0);
             }
+
+            // The fallback poller sleeps while minimized and slows down while unfocused.
+            // Offline it stays paused; the reconnect starts a fresh one.
+            @Override
+            public void windowIconified(WindowEvent e) {
+                if (poller != null) poller.pause();
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                if (poller != null && Connectivity.isOnline()) poller.resume();
+            }
+
+            @Override
+            public void windowActivated(WindowEvent e) {
+                if (poller != null && Connectivity.isOnline()) poller.resume();
+            }
+
+            @Override
+            public void windowDeactivated(WindowEvent e) {
+                if (poller != null) poller.setBackground(true);
+            }
         });
     }
 
     private void filterChats() {
         String query = searchField.getText().toLowerCase().trim();
-        chatListModel.clear();
-
-        // Add filtered users
-        for (UserInfo user : userCache.values()) {
-            if (query.isEmpty() || user.name.toLowerCase().contains(query) || user.email.toLowerCase().contains(query)) {
-                chatListModel.addElement(new ChatItem(user, false));
-            }
-        }
+        chatListModel.setFilter(item -> matchesSearch(item.chatInfo, item.isGroup, query));
+    }
 
-        // Add filtered groups
-        for (GroupInfo group : groupCache.values()) {
-            if (query.isEmpty() || group.name.toLowerCase().contains(query)) {
-                chatListModel.addElement(new ChatItem(group, true));
-            }
+    private boolean matchesSearch(Object chatInfo, boolean isGroup, String query) {
+        if (query.isEmpty()) return true;
+        if (isGroup) {
+            return ((GroupInfo) chatInfo).name.toLowerCase().contains(query);
         }
+        UserInfo user = (UserInfo) chatInfo;
+        return user.name.toLowerCase().contains(query) || user.email.toLowerCase().contains(query);
     }
 
-    private void fetchUsersAndGroups() {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                OkHttpClient client = new OkHttpClient();
-                String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-
-                // Fetch users
-                String usersUrl = databaseUrl + "/users.json";
-                Request usersRequest = new Request.Builder().url(usersUrl).get().build();
-                Response usersResponse = client.newCall(usersRequest).execute();
-                String usersResponseBody = usersResponse.body().string();
-                JSONObject usersJson = new JSONObject(usersResponseBody);
-
-                userCache.clear();
-                for (String key : usersJson.keySet()) {
-                    JSONObject userObj = usersJson.getJSONObject(key);
-                    String email = userObj.optString("email", "");
-                    if (!email.equals(currentUserEmail)) {
-                        UserInfo userInfo = new UserInfo(
-                                email,
-                                userObj.optString("displayName", email.split("@")[0]),
-                                userObj.optString("status", "offline"),
-                                userObj.optString("avatar", ""),
-                                userObj.optLong("lastSeen", System.currentTimeMillis())
-                        );
-                        userCache.put(email, userInfo);
-                    }
-                }
+    // The model applies the change as row-level events, so the selection and
+    // scroll position survive background reloads
+    private void applyChatListDiff(SnapshotCache.Diff<String, ?> diff, boolean isGroup) {
+        Map<String, Object> upserts = new HashMap<>(diff.added);
+        upserts.putAll(diff.updated);
+        chatListModel.update(upserts, diff.removed.keySet(), isGroup);
+    }
 
-                // Fetch groups
-                String groupsUrl = databaseUrl + "/groups.json";
-                Request groupsRequest = new Request.Builder().url(groupsUrl).get().build();
-                Response groupsResponse = client.newCall(groupsRequest).execute();
-                String groupsResponseBody = groupsResponse.body().string();
-
-                groupCache.clear();
-                if (!groupsResponseBody.equals("null")) {
-                    JSONObject groupsJson = new JSONObject(groupsResponseBody);
-                    for (String groupId : groupsJson.keySet()) {
-                        JSONObject groupObj = groupsJson.getJSONObject(groupId);
-                        JSONArray membersArray = groupObj.optJSONArray("members");
-                        List<String> members = new ArrayList<>();
-                        if (membersArray != null) {
-                            for (int i = 0; i < membersArray.length(); i++) {
-                                members.add(membersArray.getString(i));
-                            }
-                        }
+    // What a fetched user or group is compared on to decide whether its row changed
+    private static boolean sameUser(UserInfo a, UserInfo b) {
+        return Objects.equals(a.email, b.email) && Objects.equals(a.name, b.name)
+                && Objects.equals(a.status, b.status) && Objects.equals(a.avatar, b.avatar)
+                && a.lastSeen == b.lastSeen;
+    }
 
-                        // Only show groups where current user is a member
-                        if (members.contains(currentUserEmail)) {
-                            GroupInfo groupInfo = new GroupInfo(
-                                    groupId,
-                                    groupObj.optString("name", ""),
-                                    groupObj.optString("description", ""),
-                                    members,
-                                    groupObj.optString("createdBy", ""),
-                                    groupObj.optLong("createdAt", System.currentTimeMillis())
-                            );
-                            groupCache.put(groupId, groupInfo);
-                        }
-                    }
-                }
+    private static boolean sameGroup(GroupInfo a, GroupInfo b) {
+        return Objects.equals(a.name, b.name) && Objects.equals(a.description, b.description)
+                && Objects.equals(a.createdBy, b.createdBy) && a.createdAt == b.createdAt
+                && Objects.equals(a.members, b.members);
+    }
 
-                // Update UI
-                refreshChatList();
+    private void fetchUsersAndGroups() {
+        // Both lists load in parallel and are parsed off the EDT
+        CompletableFuture<Map<String, UserInfo>> users = FirebaseAuthService
+                .getAsync("/users.json", body -> Codecs.readMap(body, Codecs.USER_INFO, null))
+                .thenApply(this::otherUsersByEmail);
+        CompletableFuture<Map<String, GroupInfo>> groups = FirebaseAuthService
+                .getAsync("/groups.json", body -> Codecs.readMap(body, Codecs.GROUP_INFO, null));
+        CompletableFuture.allOf(users, groups).whenComplete((ignored, error) -> {
+            if (error != null) {
+                // Offline: the saved list stays up until the reconnect refetches it
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                return;
+            }
+            Map<String, GroupInfo> mine;
+            synchronized (chatListLock) {
+                // Under the lock with the flag set, so the saved list can no longer
+                // sync the membership index from its subset after this
+                chatListFromServer = true;
+                mine = myGroups(groups.join());
+                // Listeners patch the chat list with whatever changed
+                userCache.replaceAll(users.join());
+                groupCache.replaceAll(mine);
+            }
+            OfflineStore.save(currentUserEmail, "users", users.join(), Codecs.USER_INFO);
+            OfflineStore.save(currentUserEmail, "groups", mine, Codecs.GROUP_INFO);
+        });
+    }
 
-            } catch (IOException | JSONException ex) {
-                ex.printStackTrace();
+    // Shows the chat list as the last successful fetch saved it, so it is there at once
+    // and stays usable offline; the server's copy replaces it when it arrives
+    private void showSavedChatList() {
+        CompletableFuture.runAsync(() -> {
+            Map<String, UserInfo> users = OfflineStore.load(currentUserEmail, "users", Codecs.USER_INFO);
+            Map<String, GroupInfo> groups = OfflineStore.load(currentUserEmail, "groups", Codecs.GROUP_INFO);
+            synchronized (chatListLock) {
+                if (chatListFromServer) return;
+                userCache.replaceAll(users);
+                groupCache.replaceAll(myGroups(groups));
             }
         });
     }
 
-    private void refreshChatList() {
-        chatListModel.clear();
+    // Offline, reads come from the local copies and sends wait in the outbox. Back online,
+    // the outbox flushes by itself; here the chat list is refetched and the open chat
+    // resubscribed from its sync cursor, whose first event holds everything keyed after
+    // it and is merged by key into what the view already has.
+    private void onConnectivityChange(boolean online) {
+        updateOfflineBanner();
+        if (!online) {
+            if (poller != null) poller.pause();
+            return;
+        }
+        fetchUsersAndGroups();
+        if (currentChat == null || lastLoadedChatId == null) return;
+        String chatId = lastLoadedChatId;
+        stopMessageListener();
+        if (chatId.equals(syncedChatId)) {
+            resumeFromCursor(chatId);
+        } else {
+            syncLatestPage(chatId);
+        }
+    }
 
-        // Add users
-        for (UserInfo user : userCache.values()) {
-            chatListModel.addElement(new ChatItem(user, false));
+    private void updateOfflineBanner() {
+        if (Connectivity.isOnline()) {
+            offlineBanner.setVisible(false);
+            return;
         }
+        // Asked of the outbox thread, so a message enqueued just before is counted
+        MessageOutbox.pendingUnder("").thenAcceptAsync(pending -> {
+            if (Connectivity.isOnline()) return;
+            offlineBanner.setText(pending.isEmpty()
+                    ? "You are offline. Showing saved chats."
+                    : "You are offline. " + pending.size() + " message(s) will be sent when the connection returns.");
+            offlineBanner.setVisible(true);
+        }, FirebaseAuthService.EDT);
+    }
 
-        // Add groups
-        for (GroupInfo group : groupCache.values()) {
-            chatListModel.addElement(new ChatItem(group, true));
+    private Map<String, UserInfo> otherUsersByEmail(Map<String, UserInfo> usersByUid) {
+        Map<String, UserInfo> users = new HashMap<>();
+        for (UserInfo userInfo : usersByUid.values()) {
+            if (!userInfo.email.equals(currentUserEmail)) {
+                users.put(userInfo.email, userInfo);
+            }
         }
+        return users;
+    }
+
+    // Only show groups where current user is a member
+    private Map<String, GroupInfo> myGroups(Map<String, GroupInfo> allGroups) {
+        Map<String, List<String>> members = new HashMap<>();
+        for (GroupInfo groupInfo : allGroups.values()) {
+            members.put(groupInfo.id, groupInfo.members);
+        }
+        membership.syncAll(members);
+
+        Map<String, GroupInfo> groups = new HashMap<>();
+        for (String groupId : membership.groupsOf(currentUserEmail)) {
+            // The index also holds groups added locally (createGroup) that this fetch
+            // predates: keep the one already listed, and skip any not known at all
+            GroupInfo group = allGroups.containsKey(groupId) ? allGroups.get(groupId) : groupCache.get(groupId);
+            if (group != null) {
+                groups.put(groupId, group);
+            }
+        }
+        return groups;
     }
 
     private void showCreateGroupDialog() {
@@ -578,7 +788,7 @@ public class ChatInterface extends JFrame {
         memberPanel.add(memberLabel, BorderLayout.NORTH);
 
         DefaultListModel<UserInfo> memberListModel = new DefaultListModel<>();
-        for (UserInfo user : userCache.values()) {
+        for (UserInfo user : userCache.snapshot().values()) {
             memberListModel.addElement(user);
         }
 
@@ -697,39 +907,27 @@ public class ChatInterface extends JFrame {
     }
 
     private void createGroup(String name, String description, List<UserInfo> members) {
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            String groupId = "group_" + System.currentTimeMillis();
-            String url = databaseUrl + "/groups/" + groupId + ".json";
+        String groupId = "group_" + KeyGenerator.next();
 
-            JSONObject groupObj = new JSONObject();
-            groupObj.put("name", name);
-            groupObj.put("description", description);
-            groupObj.put("createdBy", currentUserEmail);
-            groupObj.put("createdAt", System.currentTimeMillis());
-
-            JSONArray membersArray = new JSONArray();
-            membersArray.put(currentUserEmail); // Add creator
-            for (UserInfo user : members) {
-                membersArray.put(user.email);
-            }
-            groupObj.put("members", membersArray);
-
-            RequestBody body = RequestBody.create(groupObj.toString(), MediaType.parse("application/json; charset=utf-8"));
-            Request request = new Request.Builder().url(url).put(body).build();
-            Response response = client.newCall(request).execute();
-
-            if (response.isSuccessful()) {
-                // Refresh the groups list
-                fetchUsersAndGroups();
-                JOptionPane.showMessageDialog(this, "Group created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-            }
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to create group.", "Error", JOptionPane.ERROR_MESSAGE);
+        List<String> memberEmails = new ArrayList<>();
+        memberEmails.add(currentUserEmail); // Add creator
+        for (UserInfo user : members) {
+            memberEmails.add(user.email);
         }
+        GroupInfo group = new GroupInfo(groupId, name, description, memberEmails, currentUserEmail, KeyGenerator.timestampOf(groupId.substring(6)));
+
+        FirebaseAuthService.putAsync("/groups/" + groupId + ".json", Codecs.GROUP_INFO.toJson(group))
+                .whenCompleteAsync((result, error) -> {
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        JOptionPane.showMessageDialog(this, "Failed to create group.", "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    // We know exactly what was written, so add it locally instead of reloading everything
+                    membership.setMembers(groupId, memberEmails);
+                    groupCache.put(groupId, group);
+                    JOptionPane.showMessageDialog(this, "Group created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                }, FirebaseAuthService.EDT);
     }
 
     private void showGroupInfo() {
@@ -748,7 +946,8 @@ public class ChatInterface extends JFrame {
         JPanel detailsPanel = new JPanel(new GridLayout(3, 1, 5, 5));
         detailsPanel.add(new JLabel("Name: " + group.name));
         detailsPanel.add(new JLabel("Description: " + (group.description.isEmpty() ? "No description" : group.description)));
-        detailsPanel.add(new JLabel("Created: " + new SimpleDateFormat("MMM d, yyyy").format(new Date(group.createdAt))));
+        detailsPanel.add(new JLabel("Created: " + (group.createdAt > 0
+                ? new SimpleDateFormat("MMM d, yyyy").format(new Date(group.createdAt)) : "unknown")));
 
         // Members list
         JPanel memberPanel = new JPanel(new BorderLayout(5, 5));
@@ -811,8 +1010,8 @@ public class ChatInterface extends JFrame {
 
         // Available users (not already in group)
         DefaultListModel<UserInfo> availableUsersModel = new DefaultListModel<>();
-        for (UserInfo user : userCache.values()) {
-            if (!group.members.contains(user.email)) {
+        for (UserInfo user : userCache.snapshot().values()) {
+            if (!membership.isMember(group.id, user.email)) {
                 availableUsersModel.addElement(user);
             }
         }
@@ -866,79 +1065,73 @@ public class ChatInterface extends JFrame {
     }
 
     private void addMembersToGroup(GroupInfo group, List<UserInfo> newMembers) {
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            String url = databaseUrl + "/groups/" + group.id + "/members.json";
-
-            // Get current members and add new ones
-            List<String> updatedMembers = new ArrayList<>(group.members);
-            for (UserInfo user : newMembers) {
-                if (!updatedMembers.contains(user.email)) {
-                    updatedMembers.add(user.email);
-                }
-            }
-
-            JSONArray membersArray = new JSONArray();
-            for (String member : updatedMembers) {
-                membersArray.put(member);
+        // Get current members and add new ones
+        List<String> updatedMembers = new ArrayList<>(group.members);
+        Set<String> added = new HashSet<>();
+        for (UserInfo user : newMembers) {
+            if (!membership.isMember(group.id, user.email) && added.add(user.email)) {
+                updatedMembers.add(user.email);
             }
+        }
 
-            RequestBody body = RequestBody.create(membersArray.toString(), MediaType.parse("application/json; charset=utf-8"));
-            Request request = new Request.Builder().url(url).put(body).build();
-            Response response = client.newCall(request).execute();
-
-            if (response.isSuccessful()) {
-                // Update local cache
-                group.members = updatedMembers;
-                groupCache.put(group.id, group);
-
-                // Send notification message to group
-                sendSystemMessage(group.id, currentUserEmail.split("@")[0] + " added " +
-                        newMembers.stream().map(u -> u.name).reduce((a, b) -> a + ", " + b).orElse("") + " to the group");
+        JSONArray membersArray = new JSONArray();
+        for (String member : updatedMembers) {
+            membersArray.put(member);
+        }
 
-                JOptionPane.showMessageDialog(this, "Members added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-            }
+        // Member list and its notification commit together in one request
+        String notice = currentUserEmail.split("@")[0] + " added " +
+                newMembers.stream().map(u -> u.name).reduce((a, b) -> a + ", " + b).orElse("") + " to the group";
+        WriteBatch batch = new WriteBatch().set("groups/" + group.id + "/members", membersArray);
+        addSystemMessage(batch, group.id, notice);
+        batch.commitAsync()
+                .whenCompleteAsync((result, error) -> {
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        JOptionPane.showMessageDialog(this, "Failed to add members.", "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    // Update local cache with a new version; cached values are never mutated
+                    membership.setMembers(group.id, updatedMembers);
+                    groupCache.put(group.id, new GroupInfo(group.id, group.name, group.description,
+                            updatedMembers, group.createdBy, group.createdAt));
 
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to add members.", "Error", JOptionPane.ERROR_MESSAGE);
-        }
+                    JOptionPane.showMessageDialog(this, "Members added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                }, FirebaseAuthService.EDT);
     }
 
     private void leaveGroup(GroupInfo group) {
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            String url = databaseUrl + "/groups/" + group.id + "/members.json";
-
-            // Remove current user from members list
-            List<String> updatedMembers = new ArrayList<>(group.members);
-            updatedMembers.remove(currentUserEmail);
+        // Remove current user from members list
+        List<String> updatedMembers = new ArrayList<>(group.members);
+        updatedMembers.remove(currentUserEmail);
+
+        WriteBatch batch = new WriteBatch();
+        if (updatedMembers.isEmpty()) {
+            // Delete group if no members left
+            batch.delete("groups/" + group.id);
+        } else {
+            // Update members list and post the notification in the same request
+            JSONArray membersArray = new JSONArray();
+            for (String member : updatedMembers) {
+                membersArray.put(member);
+            }
+            batch.set("groups/" + group.id + "/members", membersArray);
+            addSystemMessage(batch, group.id, currentUserEmail.split("@")[0] + " left the group");
+        }
 
+        batch.commitAsync().whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                JOptionPane.showMessageDialog(this, "Failed to leave group.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            // Remove from local cache; the listener drops it from the list
             if (updatedMembers.isEmpty()) {
-                // Delete group if no members left
-                String deleteUrl = databaseUrl + "/groups/" + group.id + ".json";
-                Request deleteRequest = new Request.Builder().url(deleteUrl).delete().build();
-                client.newCall(deleteRequest).execute();
+                membership.removeGroup(group.id);
             } else {
-                // Update members list
-                JSONArray membersArray = new JSONArray();
-                for (String member : updatedMembers) {
-                    membersArray.put(member);
-                }
-
-                RequestBody body = RequestBody.create(membersArray.toString(), MediaType.parse("application/json; charset=utf-8"));
-                Request request = new Request.Builder().url(url).put(body).build();
-                client.newCall(request).execute();
-
-                // Send notification message
-                sendSystemMessage(group.id, currentUserEmail.split("@")[0] + " left the group");
+                membership.setMembers(group.id, updatedMembers);
             }
-
-            // Remove from local cache and refresh UI
             groupCache.remove(group.id);
-            refreshChatList();
 
             // Clear current chat if it was this group
             if (currentChat != null && currentChat.isGroup &&
@@ -949,72 +1142,46 @@ public class ChatInterface extends JFrame {
                 clearChatPanel();
                 stopMessageListener();
             }
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to leave group.", "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }, FirebaseAuthService.EDT);
     }
 
-    private void sendSystemMessage(String groupId, String message) {
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            long timestamp = System.currentTimeMillis();
-            String url = databaseUrl + "/messages/group_" + groupId + "/" + timestamp + ".json";
-
-            JSONObject msgObj = new JSONObject();
-            msgObj.put("from", "SYSTEM");
-            msgObj.put("to", "group_" + groupId);
-            msgObj.put("text", message);
-            msgObj.put("timestamp", timestamp);
-            msgObj.put("isSystem", true);
-
-            RequestBody body = RequestBody.create(msgObj.toString(), MediaType.parse("application/json; charset=utf-8"));
-            Request request = new Request.Builder().url(url).put(body).build();
-            client.newCall(request).execute();
+    private void addSystemMessage(WriteBatch batch, String groupId, String message) {
+        String key = KeyGenerator.next();
 
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+        Message msg = new Message("SYSTEM", "group_" + groupId, message, KeyGenerator.timestampOf(key), true);
+        batch.setJson("messages/group_" + groupId + "/" + key, Codecs.MESSAGE.toJson(msg));
     }
 
     private void sendMessage() {
         String message = inputField.getText().trim();
         if (!message.isEmpty() && currentChat != null) {
-            try {
-                OkHttpClient client = new OkHttpClient();
-                String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-                String chatId;
-                String toField;
-
-                if (currentChat.isGroup) {
-                    GroupInfo group = (GroupInfo) currentChat.chatInfo;
-                    chatId = "group_" + group.id;
-                    toField = chatId;
-                } else {
-                    UserInfo user = (UserInfo) currentChat.chatInfo;
-                    chatId = getChatId(currentUserEmail, user.email);
-                    toField = user.email;
-                }
+            String chatId;
+            String toField;
 
-                long timestamp = System.currentTimeMillis();
-                String url = databaseUrl + "/messages/" + chatId + "/" + timestamp + ".json";
+            if (currentChat.isGroup) {
+                GroupInfo group = (GroupInfo) currentChat.chatInfo;
+                chatId = "group_" + group.id;
+                toField = chatId;
+            } else {
+                UserInfo user = (UserInfo) currentChat.chatInfo;
+                chatId = getChatId(currentUserEmail, user.email);
+                toField = user.email;
+            }
 
-                JSONObject msgObj = new JSONObject();
-                msgObj.put("from", currentUserEmail);
-                msgObj.put("to", toField);
-                msgObj.put("text", message);
-                msgObj.put("timestamp", timestamp);
+            String key = KeyGenerator.next();
 
-                RequestBody body = RequestBody.create(msgObj.toString(), MediaType.parse("application/json; charset=utf-8"));
-                Request request = new Request.Builder().url(url).put(body).build();
-                client.newCall(request).execute();
+            Message msg = new Message(currentUserEmail, toField, message, KeyGenerator.timestampOf(key));
 
-                inputField.setText("");
-            } catch (Exception ex) {
-                ex.printStackTrace();
+            inputField.setText("");
+            // Shown right away; the outbox delivers it in the background and across restarts
+            MessageOutbox.enqueue("messages/" + chatId + "/" + key, Codecs.MESSAGE.toJson(msg));
+            if (hasNewerMessages) {
+                // Viewing an older window: go back to the latest page, which the new message joins
+                loadLatestPage(chatId);
             }
+            showLocalMessage(chatId, key, msg);
+            if (poller != null) poller.activity();
+            if (!Connectivity.isOnline()) updateOfflineBanner();
         }
     }
 
@@ -1031,66 +1198,645 @@ public class ChatInterface extends JFrame {
             chatId = getChatId(currentUserEmail, user.email);
         }
 
+        stashOpenChat();
         lastLoadedChatId = chatId;
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> loadMessages(chatId), 0, 1, TimeUnit.SECONDS);
+        loadingOlderMessages = false;
+        loadingNewerMessages = false;
+        ChatView cached = chatCache.take(chatId);
+        if (cached != null) {
+            restoreChat(chatId, cached);
+            resumeFromCursor(chatId);
+            return;
+        }
+        syncedChatId = null;
+        chatMessages = newMessageStore();
+        daySeparators = new HashMap<>();
+        lastRenderedDay = -1;
+        oldestLoadedKey = null;
+        hasOlderMessages = false;
+        hasNewerMessages = false;
+        showChatPanel(createChatPanel(), 0);
+
+        // Show what the local log holds right away; the network then catches up from its
+        // newest key, or replaces it with the latest page when it is too far behind
+        MessageLog.readLatest(chatId, MESSAGE_PAGE_SIZE).whenCompleteAsync((local, error) -> {
+            if (!chatId.equals(lastLoadedChatId)) return;
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+            }
+            if (error != null || local.isEmpty()) {
+                syncLatestPage(chatId);
+                return;
+            }
+            chatMessages.clear();
+            local.forEach(chatMessages::upsert);
+            oldestLoadedKey = chatMessages.oldestKey();
+            // The server may hold older messages than the log does
+            hasOlderMessages = true;
+            String newest = chatMessages.newestKey();
+            String cursor = SyncCursors.get(chatId);
+            if (cursor != null && cursor.compareTo(newest) > 0) {
+                // The log lost its tail (cleared, or cut short by a crash): resume from what it has
+                SyncCursors.reset(chatId);
+            }
+            SyncCursors.advance(chatId, newest);
+            syncedChatId = chatId;
+            renderAllMessages(true);
+            showPendingMessages(chatId);
+            resumeFromCursor(chatId);
+        }, FirebaseAuthService.EDT);
+    }
+
+    // Moves the open chat into the chat cache. Only a view that caught up with the server
+    // is kept, since coming back to it resumes from the sync cursor.
+    private void stashOpenChat() {
+        if (lastLoadedChatId == null || !lastLoadedChatId.equals(syncedChatId) || chatMessages.isEmpty()) {
+            chatMessages.release();
+            return;
+        }
+        JScrollBar vertical = chatScrollPane.getVerticalScrollBar();
+        boolean atBottom = vertical.getValue() + vertical.getVisibleAmount() >= vertical.getMaximum();
+        chatCache.put(lastLoadedChatId, new ChatView(chatMessages, chatPanel, daySeparators, lastRenderedDay,
+                oldestLoadedKey, hasOlderMessages, hasNewerMessages, vertical.getValue(), atBottom));
+    }
+
+    private void restoreChat(String chatId, ChatView view) {
+        chatMessages = view.messages;
+        daySeparators = view.daySeparators;
+        lastRenderedDay = view.lastRenderedDay;
+        oldestLoadedKey = view.oldestLoadedKey;
+        hasOlderMessages = view.hasOlderMessages;
+        hasNewerMessages = view.hasNewerMessages;
+        String cursor = SyncCursors.get(chatId);
+        String newest = chatMessages.newestKey();
+        if (cursor != null && cursor.compareTo(newest) > 0 && !hasNewerMessages) {
+            // A poll answered after we left moved the cursor past what the view holds
+            SyncCursors.reset(chatId);
+            SyncCursors.advance(chatId, newest);
+        }
+        syncedChatId = chatId;
+        showChatPanel(view.panel, view.atBottom ? Integer.MAX_VALUE : view.scrollValue);
+    }
+
+    // Swaps panel into the scroll pane at scrollValue without it counting as the user
+    // scrolling, which would page in history
+    private void showChatPanel(JPanel panel, int scrollValue) {
+        chatPanel = panel;
+        lastScrollValue = 0;
+        chatScrollPane.setViewportView(panel);
+        chatScrollPane.validate();
+        JScrollBar vertical = chatScrollPane.getVerticalScrollBar();
+        int value = Math.min(scrollValue, vertical.getMaximum() - vertical.getVisibleAmount());
+        lastScrollValue = Math.max(0, value);
+        vertical.setValue(lastScrollValue);
+    }
+
+    // Renders the latest page from the server, then subscribes to everything after it
+    private void syncLatestPage(String chatId) {
+        loadLatestPage(chatId).whenCompleteAsync((page, error) -> {
+            if (!chatId.equals(lastLoadedChatId)) return;
+            if (error == null) {
+                if (messageStream == null && poller == null) {
+                    openMessageStream(chatId);
+                }
+            } else {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                showPendingMessages(chatId);
+                if (poller == null) {
+                    startPolling(chatId);
+                }
+            }
+        }, FirebaseAuthService.EDT);
+    }
+
+    // Subscribes from the sync cursor of a view that is already showing. The stream's first
+    // event would hold everything keyed after the cursor, and all of it would be rendered,
+    // so one bounded fetch finds out first how far behind the view is: up to a page is
+    // merged in, more than that and the view is replaced by the latest page.
+    private void resumeFromCursor(String chatId) {
+        String cursor = SyncCursors.get(chatId);
+        if (cursor == null || hasNewerMessages) {
+            // Viewing an older window: updates past it are dropped, not rendered
+            openMessageStream(chatId);
+            return;
+        }
+        // startAt is inclusive: one extra for the cursor message itself
+        fetchMessages(chatId, "orderBy=\"$key\"&startAt=\"" + cursor + "\"&limitToFirst=" + (MESSAGE_PAGE_SIZE + 1))
+                .whenCompleteAsync((page, error) -> {
+                    if (!chatId.equals(lastLoadedChatId) || messageStream != null || poller != null) return;
+                    if (error != null) {
+                        // Offline or failing: the stream's own error handling takes it from here
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        openMessageStream(chatId);
+                        return;
+                    }
+                    page.remove(cursor);
+                    if (page.size() >= MESSAGE_PAGE_SIZE) {
+                        syncLatestPage(chatId);
+                        return;
+                    }
+                    mergeMessages(page, Collections.emptySet());
+                    openMessageStream(chatId);
+                }, FirebaseAuthService.EDT);
+    }
+
+    // Messages still in the outbox, e.g. written offline before a restart, are shown as sent
+    private void showPendingMessages(String chatId) {
+        String prefix = "messages/" + chatId + "/";
+        MessageOutbox.pendingUnder(prefix).thenAcceptAsync(pending -> {
+            if (pending.isEmpty() || !chatId.equals(lastLoadedChatId)) return;
+            Map<String, Message> messages = new HashMap<>();
+            pending.forEach((path, json) -> {
+                String key = path.substring(prefix.length());
+                if (!key.contains("/")) messages.put(key, Codecs.MESSAGE.fromJson(key, json));
+            });
+            applyMessages(messages, Collections.emptySet());
+        }, FirebaseAuthService.EDT);
+    }
+
+    private void openMessageStream(String chatId) {
+        String url = FirebaseAuthService.getDatabaseUrl() + "/messages/" + chatId + ".json";
+        String cursor = SyncCursors.get(chatId);
+        if (cursor != null) {
+            url += "?orderBy=\"$key\"&startAt=\"" + cursor + "\"";
+        }
+        messageStream = FirebaseStream.open(url, new FirebaseStream.Listener() {
+            @Override
+            public void onPut(String path, JsonReader data) throws IOException {
+                readStreamEvent(chatId, path, data, false);
+            }
+
+            @Override
+            public void onPatch(String path, JsonReader data) throws IOException {
+                readStreamEvent(chatId, path, data, true);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                e.printStackTrace();
+                // Streaming unavailable (proxy, network): fall back to polling this chat
+                SwingUtilities.invokeLater(() -> {
+                    if (chatId.equals(lastLoadedChatId) && poller == null) {
+                        startPolling(chatId);
+                    }
+                });
+            }
+        });
+    }
+
+    private void startPolling(String chatId) {
+        polledChatId = chatId;
+        poller = new AdaptivePoller("message-poller", () -> loadMessages(chatId));
+        // Offline there is nothing to poll; the reconnect restarts the listener
+        if (getExtendedState() == Frame.ICONIFIED || !Connectivity.isOnline()) {
+            poller.pause();
+        } else if (!isActive()) {
+            poller.setBackground(true);
+        }
+        poller.start();
     }
 
     private void stopMessageListener() {
-        if (scheduler != null) {
-            scheduler.shutdownNow();
-            scheduler = null;
+        if (messageStream != null) {
+            messageStream.cancel();
+            messageStream = null;
+        }
+        if (poller != null) {
+            poller.stop();
+            poller = null;
+        }
+        if (polledChatId != null) {
+            ConditionalGet.forget(polledChatId);
+            polledChatId = null;
+            onlineStatusLabel.setToolTipText(null);
         }
     }
 
-    private void loadMessages(String chatId) {
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            String url = databaseUrl + "/messages/" + chatId + ".json";
-            Request request = new Request.Builder().url(url).get().build();
-            Response response = client.newCall(request).execute();
-            String responseBody = response.body().string();
-            JSONObject json;
-            try {
-                json = new JSONObject(responseBody);
-            } catch (JSONException e) {
-                json = new JSONObject();
-            }
-            List<Message> messages = new ArrayList<>();
-            for (String key : json.keySet()) {
-                JSONObject msgObj = json.getJSONObject(key);
-                messages.add(new Message(
-                        msgObj.optString("from", ""),
-                        msgObj.optString("to", ""),
-                        msgObj.optString("text", ""),
-                        msgObj.optLong("timestamp", 0),
-                        msgObj.optBoolean("isSystem", false)
-                ));
-            }
-            messages.sort(Comparator.comparingLong(m -> m.timestamp));
-            SwingUtilities.invokeLater(() -> {
-                if (!chatId.equals(lastLoadedChatId)) return;
-                clearChatPanel();
-                String lastDate = "";
-                for (Message msg : messages) {
-                    String currentDate = new SimpleDateFormat("MMMM d, yyyy").format(new Date(msg.timestamp));
-                    if (!currentDate.equals(lastDate)) {
-                        addDateSeparator(currentDate);
-                        lastDate = currentDate;
+    // Completes with true when the poll brought in anything new
+    private CompletableFuture<Boolean> loadMessages(String chatId) {
+        CompletableFuture<Boolean> poll;
+        // Once the view holds this chat's latest page, only ask for keys from the cursor onwards
+        String cursor = chatId.equals(syncedChatId) ? SyncCursors.get(chatId) : null;
+        if (cursor == null) {
+            poll = loadLatestPage(chatId).thenApply(page -> true);
+        } else {
+            String url = FirebaseAuthService.getDatabaseUrl() + "/messages/" + chatId + ".json"
+                    + "?orderBy=\"$key\"&startAt=\"" + cursor + "\"";
+            // startAt is inclusive, so the decoder skips the cursor message that comes back every time
+            poll = ConditionalGet.fetchIfChanged(chatId, url, body -> Codecs.readMap(body, Codecs.MESSAGE, cursor))
+                    .thenApply(messages -> {
+                        if (messages == null) return null; // ETag unchanged: nothing new since the last poll
+                        SyncCursors.advance(chatId, SyncCursors.newest(messages.keySet()));
+                        return messages;
+                    })
+                    .thenApplyAsync(messages -> {
+                        if (!chatId.equals(polledChatId)) return false;
+                        // How often the ETag spared a download, on hover over the chat's status
+                        onlineStatusLabel.setToolTipText("Polling: " + ConditionalGet.describe(chatId));
+                        if (messages == null || messages.isEmpty() || !chatId.equals(lastLoadedChatId)) return false;
+                        mergeMessages(messages, Collections.emptySet());
+                        return true;
+                    }, FirebaseAuthService.EDT);
+        }
+        return poll.whenComplete((result, error) -> {
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+            }
+        });
+    }
+
+    private CompletableFuture<Map<String, Message>> loadLatestPage(String chatId) {
+        return fetchMessages(chatId, "orderBy=\"$key\"&limitToLast=" + MESSAGE_PAGE_SIZE)
+                .thenApply(page -> {
+                    MessageLog.append(chatId, page, Collections.emptySet());
+                    SyncCursors.advance(chatId, SyncCursors.newest(page.keySet()));
+                    return page;
+                })
+                .thenApplyAsync(page -> {
+                    if (!chatId.equals(lastLoadedChatId)) return page;
+                    chatMessages.clear();
+                    page.forEach(chatMessages::upsert);
+                    oldestLoadedKey = chatMessages.oldestKey();
+                    hasOlderMessages = page.size() >= MESSAGE_PAGE_SIZE;
+                    hasNewerMessages = false;
+                    syncedChatId = chatId;
+                    renderAllMessages(true);
+                    showPendingMessages(chatId);
+                    return page;
+                }, FirebaseAuthService.EDT);
+    }
+
+    // Loads the page just before the oldest rendered message, keeping the scroll position
+    private void loadOlderMessages() {
+        if (loadingOlderMessages || !hasOlderMessages || oldestLoadedKey == null) return;
+        loadingOlderMessages = true;
+        String chatId = lastLoadedChatId;
+        String before = oldestLoadedKey;
+        // endAt is inclusive, so ask for one extra and drop the message we already have
+        fetchMessages(chatId, "orderBy=\"$key\"&endAt=\"" + before + "\"&limitToLast=" + (MESSAGE_PAGE_SIZE + 1))
+                .whenCompleteAsync((page, error) -> {
+                    loadingOlderMessages = false;
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        return;
                     }
-                    addModernMessageBubble(msg);
-                }
-                chatPanel.revalidate();
-                chatPanel.repaint();
+                    if (!chatId.equals(lastLoadedChatId)) return;
+                    page.remove(before);
+                    MessageLog.append(chatId, page, Collections.emptySet());
+                    hasOlderMessages = page.size() >= MESSAGE_PAGE_SIZE;
+                    if (page.isEmpty()) return;
+                    JScrollBar vertical = chatScrollPane.getVerticalScrollBar();
+                    int distanceFromBottom = vertical.getMaximum() - vertical.getValue();
+                    String shownOldest = chatMessages.oldestKey();
+                    int shown = chatMessages.size();
+                    page.forEach(chatMessages::upsert);
+                    oldestLoadedKey = chatMessages.oldestKey();
+                    if (shown > 0 && page.keySet().stream().allMatch(key -> key.compareTo(shownOldest) < 0)) {
+                        // The usual case: the whole page sits before what is shown
+                        prependMessageBubbles(chatMessages.size() - shown);
+                    } else {
+                        renderAllMessages(false);
+                    }
+                    chatScrollPane.validate();
+                    vertical.setValue(vertical.getMaximum() - distanceFromBottom);
+                }, FirebaseAuthService.EDT);
+    }
+
+    // Loads the page just after the newest rendered message while viewing an older window
+    private void loadNewerMessages() {
+        if (loadingNewerMessages || !hasNewerMessages || chatMessages.isEmpty()) return;
+        loadingNewerMessages = true;
+        String chatId = lastLoadedChatId;
+        String after = chatMessages.newestKey();
+        // startAt is inclusive too: one extra, minus the message we already have
+        fetchMessages(chatId, "orderBy=\"$key\"&startAt=\"" + after + "\"&limitToFirst=" + (MESSAGE_PAGE_SIZE + 1))
+                .whenCompleteAsync((page, error) -> {
+                    loadingNewerMessages = false;
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        return;
+                    }
+                    if (!chatId.equals(lastLoadedChatId) || !hasNewerMessages) return;
+                    page.remove(after);
+                    MessageLog.append(chatId, page, Collections.emptySet());
+                    // A short page reached the live end; from here on updates append as usual
+                    hasNewerMessages = page.size() >= MESSAGE_PAGE_SIZE;
+                    if (page.isEmpty()) return;
+                    JScrollBar vertical = chatScrollPane.getVerticalScrollBar();
+                    int value = vertical.getValue();
+                    // Past the newest row, so each one takes the append path
+                    for (Map.Entry<String, Message> entry : new TreeMap<>(page).entrySet()) {
+                        if (chatMessages.upsert(entry.getKey(), entry.getValue()) == MessageStore.Change.APPENDED) {
+                            appendMessageBubble(entry.getValue());
+                        }
+                    }
+                    chatPanel.revalidate();
+                    chatPanel.repaint();
+                    chatScrollPane.validate();
+                    vertical.setValue(value);
+                }, FirebaseAuthService.EDT);
+    }
+
+    // Writes the whole open chat to a ZIP on the export thread; the history is paged from the
+    // server, not taken from the view, which only ever holds a few pages
+    private void exportCurrentChat() {
+        if (currentChat == null || lastLoadedChatId == null) return;
+        String chatId = lastLoadedChatId;
+        JFileChooser chooser = new JFileChooser(System.getProperty("user.home"));
+        chooser.setDialogTitle("Export chat");
+        chooser.setSelectedFile(new File(chatId + ".zip"));
+        JCheckBox withAttachments = new JCheckBox("Include attachments");
+        chooser.setAccessory(withAttachments);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        Path target = chooser.getSelectedFile().toPath();
+
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exporting " + chattingWithLabel.getText(), "Starting...", 0, 1000);
+        monitor.setMillisToDecideToPopup(0);
+        monitor.setMillisToPopup(0);
+        CompletableFuture<ChatExporter.Result> export = ChatExporter.export(chatId, target, withAttachments.isSelected(),
+                (messages, attachments, fraction) -> SwingUtilities.invokeLater(() -> {
+                    monitor.setNote(messages + " messages" + (attachments > 0 ? ", " + attachments + " attachments" : ""));
+                    monitor.setProgress((int) (fraction * 999));
+                }));
+        javax.swing.Timer cancelWatch = new javax.swing.Timer(250, e -> {
+            if (monitor.isCanceled()) export.cancel(true);
+        });
+        cancelWatch.start();
+        export.whenCompleteAsync((result, error) -> {
+            cancelWatch.stop();
+            monitor.close();
+            if (error instanceof CancellationException) return;
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                JOptionPane.showMessageDialog(this, "Export failed: " + FirebaseAuthService.rootCause(error).getMessage(),
+                        "Export chat", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String summary = "Exported " + result.messages + " messages";
+            if (withAttachments.isSelected()) {
+                summary += " and " + result.attachments + " attachments";
+                if (result.failedAttachments > 0) summary += " (" + result.failedAttachments + " could not be downloaded)";
+            }
+            JOptionPane.showMessageDialog(this, summary + " to\n" + result.file, "Export chat", JOptionPane.INFORMATION_MESSAGE);
+        }, FirebaseAuthService.EDT);
+    }
+
+    private void showJumpToDateDialog() {
+        if (currentChat == null) return;
+        JSpinner spinner = new JSpinner(new SpinnerDateModel());
+        spinner.setEditor(new JSpinner.DateEditor(spinner, "yyyy-MM-dd"));
+        int choice = JOptionPane.showConfirmDialog(this, spinner, "Jump to date",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION) return;
+        Date picked = (Date) spinner.getValue();
+        jumpToDate(Instant.ofEpochMilli(picked.getTime()).atZone(ZoneId.systemDefault()).toLocalDate());
+    }
+
+    // Scrolls to the first message on or after date, loading that page of history if
+    // it is older than anything in the view
+    private void jumpToDate(LocalDate date) {
+        if (lastLoadedChatId == null || chatMessages.isEmpty()) return;
+        DayIndex days = chatMessages.days();
+        long target = days.startOf(date);
+        if (target >= days.day(0) || !hasOlderMessages) {
+            long day = days.ceilingDay(target);
+            if (day < 0 && !hasNewerMessages) {
                 scrollToBottom();
-            });
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            } else if (day < 0) {
+                loadHistoryFrom(target);
+            } else {
+                scrollToDay(day);
+            }
+            return;
+        }
+        loadHistoryFrom(target);
+    }
+
+    // Replaces the view with the page starting at dayStart; keys begin with their millis, so
+    // the day's start is a valid key bound for both current and legacy keys
+    private void loadHistoryFrom(long dayStart) {
+        String chatId = lastLoadedChatId;
+        fetchMessages(chatId, "orderBy=\"$key\"&startAt=\"" + dayStart + "\"&limitToFirst=" + MESSAGE_PAGE_SIZE)
+                .whenCompleteAsync((page, error) -> {
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        return;
+                    }
+                    if (!chatId.equals(lastLoadedChatId)) return;
+                    if (page.isEmpty()) {
+                        // Nothing from that day on that we don't already show
+                        scrollToBottom();
+                        return;
+                    }
+                    MessageLog.append(chatId, page, Collections.emptySet());
+                    chatMessages.clear();
+                    page.forEach(chatMessages::upsert);
+                    oldestLoadedKey = chatMessages.oldestKey();
+                    hasOlderMessages = true;
+                    hasNewerMessages = page.size() >= MESSAGE_PAGE_SIZE;
+                    renderAllMessages(false);
+                    scrollToDay(chatMessages.days().day(0));
+                }, FirebaseAuthService.EDT);
+    }
+
+    private void scrollToDay(long day) {
+        JComponent separator = daySeparators.get(day);
+        if (separator == null) return;
+        chatScrollPane.validate();
+        chatScrollPane.getVerticalScrollBar().setValue(separator.getY());
+    }
+
+    private CompletableFuture<Map<String, Message>> fetchMessages(String chatId, String query) {
+        String path = "/messages/" + chatId + ".json";
+        if (query != null) {
+            path += "?" + query;
+        }
+        return FirebaseAuthService.getAsync(path, body -> Codecs.readMap(body, Codecs.MESSAGE, null));
+    }
+
+    // Decodes one SSE event for /messages/{chatId} straight from its body on the stream
+    // thread, then applies it on the EDT. The stream starts at the sync cursor, so a root
+    // "put" only covers the tail of the chat.
+    private void readStreamEvent(String chatId, String path, JsonReader data, boolean isPatch) throws IOException {
+        String relative = path.startsWith("/") ? path.substring(1) : path;
+        Map<String, Message> updates = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+
+        if (relative.isEmpty()) {
+            if (data.peek() != JsonToken.BEGIN_OBJECT) {
+                data.skipValue();
+                return;
+            }
+            data.beginObject();
+            while (data.hasNext()) {
+                String key = data.nextName();
+                readStreamValue(key, data, updates, removed);
+            }
+            data.endObject();
+        } else if (!relative.contains("/") && !isPatch) {
+            readStreamValue(relative, data, updates, removed);
+        } else {
+            // A field inside an existing message changed; refetch that message
+            data.skipValue();
+            String key = relative.split("/")[0];
+            SwingUtilities.invokeLater(() -> refetchMessage(chatId, key));
+            return;
+        }
+        // A root put repeats messages already shown; a patch replaces them
+        boolean skipKnown = relative.isEmpty() && !isPatch;
+        SwingUtilities.invokeLater(() -> {
+            if (!chatId.equals(lastLoadedChatId)) return;
+            if (skipKnown) updates.keySet().removeIf(chatMessages::contains);
+            mergeMessages(updates, removed);
+        });
+    }
+
+    // A message object, or anything else (null) for a deletion
+    private static void readStreamValue(String key, JsonReader data, Map<String, Message> updates,
+                                        Set<String> removed) throws IOException {
+        if (data.peek() == JsonToken.BEGIN_OBJECT) {
+            updates.put(key, Codecs.MESSAGE.read(key, data));
+        } else {
+            data.skipValue();
+            removed.add(key);
+        }
+    }
+
+    private void refetchMessage(String chatId, String key) {
+        if (!chatId.equals(lastLoadedChatId)) return;
+        FirebaseAuthService.getAsync("/messages/" + chatId + "/" + key + ".json")
+                .thenApply(body -> body.equals("null") ? null : Codecs.MESSAGE.fromJson(key, body))
+                .whenCompleteAsync((msg, error) -> {
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        return;
+                    }
+                    if (!chatId.equals(lastLoadedChatId)) return;
+                    if (msg != null) {
+                        mergeMessages(Collections.singletonMap(key, msg), Collections.emptySet());
+                    } else {
+                        mergeMessages(Collections.emptyMap(), Collections.singleton(key));
+                    }
+                }, FirebaseAuthService.EDT);
+    }
+
+    private void mergeMessages(Map<String, Message> updates, Set<String> removed) {
+        MessageLog.append(lastLoadedChatId, updates, removed);
+        SyncCursors.advance(lastLoadedChatId, SyncCursors.newest(updates.keySet()));
+        applyMessages(updates, removed);
+    }
+
+    // Renders a message we wrote before the server has it. The cursor is left alone
+    // so that messages from others keyed before it still arrive.
+    private void showLocalMessage(String chatId, String key, Message msg) {
+        if (!chatId.equals(lastLoadedChatId)) return;
+        applyMessages(Collections.singletonMap(key, msg), Collections.emptySet());
+    }
+
+    private void applyMessages(Map<String, Message> updates, Set<String> removed) {
+        if (hasNewerMessages) {
+            // Live updates past an older window are picked up when paging forward
+            String newest = chatMessages.newestKey();
+            updates = new HashMap<>(updates);
+            updates.keySet().removeIf(key -> newest == null || key.compareTo(newest) > 0);
+        }
+        boolean appendOnly = true;
+        for (String key : removed) {
+            if (chatMessages.remove(key)) appendOnly = false;
+        }
+        List<Message> appended = new ArrayList<>();
+        // Key order, so several new messages land on the append path one after another
+        for (Map.Entry<String, Message> entry : new TreeMap<>(updates).entrySet()) {
+            switch (chatMessages.upsert(entry.getKey(), entry.getValue())) {
+                case APPENDED:
+                    appended.add(entry.getValue());
+                    break;
+                case UNCHANGED:
+                    // Server echo of a message already rendered locally
+                    break;
+                default:
+                    appendOnly = false;
+            }
+        }
+        if (!appendOnly) {
+            renderAllMessages(true);
+            return;
+        }
+        if (appended.isEmpty()) return;
+        for (Message msg : appended) {
+            appendMessageBubble(msg);
+        }
+        chatPanel.revalidate();
+        chatPanel.repaint();
+        scrollToBottom();
+    }
+
+    private void renderAllMessages(boolean scrollToEnd) {
+        clearChatPanel();
+        lastRenderedDay = -1;
+        daySeparators.clear();
+        for (int row = 0; row < chatMessages.size(); row++) {
+            appendMessageBubble(chatMessages.message(row));
+        }
+        chatPanel.revalidate();
+        chatPanel.repaint();
+        if (scrollToEnd) {
+            scrollToBottom();
+        }
+        SwingUtilities.invokeLater(this::fillViewportWithHistory);
+    }
+
+    // A page shorter than the viewport shows no scrollbar, so the scroll listener never
+    // fires; keep paging in history until the view can scroll or there is none left
+    private void fillViewportWithHistory() {
+        if (!hasOlderMessages || loadingOlderMessages) return;
+        chatScrollPane.validate();
+        JScrollBar vertical = chatScrollPane.getVerticalScrollBar();
+        if (vertical.getMaximum() <= vertical.getVisibleAmount()) {
+            loadOlderMessages();
+        }
+    }
+
+    // msg must already be in chatMessages, whose day index places it
+    private void appendMessageBubble(Message msg) {
+        long day = chatMessages.days().dayOf(msg.timestamp);
+        if (day != lastRenderedDay) {
+            daySeparators.put(day, addDateSeparator(dayLabel(day), -1));
+            lastRenderedDay = day;
+        }
+        addModernMessageBubble(msg, -1);
+    }
+
+    // Builds bubbles for the first count rows only, in front of those already shown. When
+    // the new rows end on the day the view started with, that day's old separator goes.
+    private void prependMessageBubbles(int count) {
+        long shownFirstDay = chatMessages.days().dayOf(chatMessages.timestamp(count));
+        JComponent joinSeparator = daySeparators.get(shownFirstDay);
+        int index = 0;
+        long day = -1;
+        for (int row = 0; row < count; row++) {
+            Message msg = chatMessages.message(row);
+            long rowDay = chatMessages.days().dayOf(msg.timestamp);
+            if (rowDay != day) {
+                daySeparators.put(rowDay, addDateSeparator(dayLabel(rowDay), index++));
+                day = rowDay;
+            }
+            addModernMessageBubble(msg, index++);
         }
+        if (day == shownFirstDay && joinSeparator != null) {
+            chatPanel.remove(joinSeparator);
+        }
+        chatPanel.revalidate();
+        chatPanel.repaint();
+        SwingUtilities.invokeLater(this::fillViewportWithHistory);
     }
 
-    private void addDateSeparator(String date) {
+    private String dayLabel(long day) {
+        return dayLabels.computeIfAbsent(day, d -> DAY_FORMAT.format(chatMessages.days().dateOf(d)));
+    }
+
+    // index is the position in chatPanel, or -1 for the end
+    private JComponent addDateSeparator(String date, int index) {
         JLabel dateLabel = new JLabel(date);
         dateLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
         dateLabel.setForeground(TEXT_COLOR);
@@ -1099,10 +1845,11 @@ public class ChatInterface extends JFrame {
         separator.setOpaque(false);
         separator.setBorder(new EmptyBorder(15, 0, 10, 0));
         separator.add(dateLabel);
-        chatPanel.add(separator);
+        chatPanel.add(separator, index);
+        return separator;
     }
 
-    private void addModernMessageBubble(Message msg) {
+    private void addModernMessageBubble(Message msg, int index) {
         boolean isMe = msg.from.equals(currentUserEmail);
         boolean isSystem = msg.isSystem;
 
@@ -1120,7 +1867,7 @@ public class ChatInterface extends JFrame {
             systemLabel.setBackground(new Color(240, 240, 240));
 
             systemPanel.add(systemLabel);
-            chatPanel.add(systemPanel);
+            chatPanel.add(systemPanel, index);
             return;
         }
 
@@ -1147,16 +1894,12 @@ public class ChatInterface extends JFrame {
             fileLabel.addMouseListener(new MouseAdapter() {
                 @Override
                 public void mouseClicked(MouseEvent e) {
-                    try {
-                        Desktop.getDesktop().browse(new java.net.URI(msg.fileUrl));
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
+                    openAttachment(msg);
                 }
             });
             bubble.add(fileLabel, BorderLayout.CENTER);
             messagePanel.add(bubble);
-            chatPanel.add(messagePanel);
+            chatPanel.add(messagePanel, index);
             return;
         }
 
@@ -1195,7 +1938,7 @@ public class ChatInterface extends JFrame {
         textLabel.setFont(new Font("Segoe UI", Font.PLAIN, 15));
         textLabel.setForeground(isMe ? Color.WHITE : TEXT_COLOR);
 
-        JLabel timeLabel = new JLabel(new SimpleDateFormat("h:mm a").format(new Date(msg.timestamp)));
+        JLabel timeLabel = new JLabel(TIME_FORMAT.format(Instant.ofEpochMilli(msg.timestamp).atZone(ZoneId.systemDefault())));
         timeLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
         timeLabel.setForeground(isMe ? new Color(255, 255, 255, 180) : TEXT_COLOR);
         timeLabel.setBorder(new EmptyBorder(4, 0, 0, 0));
@@ -1206,7 +1949,36 @@ public class ChatInterface extends JFrame {
         bubble.add(contentPanel);
         bubble.setMaximumSize(new Dimension(320, Integer.MAX_VALUE));
         messagePanel.add(bubble);
-        chatPanel.add(messagePanel);
+        chatPanel.add(messagePanel, index);
+    }
+
+    // Opens the cached copy of an attachment, downloading it once; files too big for the
+    // cache, or that fail to download, open in the browser as before
+    private void openAttachment(Message msg) {
+        if (!ContentCache.fits(msg.fileSize)) {
+            browseAttachment(msg);
+            return;
+        }
+        ContentCache.file(msg.fileUrl).whenCompleteAsync((path, error) -> {
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                browseAttachment(msg);
+                return;
+            }
+            try {
+                Desktop.getDesktop().open(path.toFile());
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }, FirebaseAuthService.EDT);
+    }
+
+    private void browseAttachment(Message msg) {
+        try {
+            Desktop.getDesktop().browse(new java.net.URI(msg.fileUrl));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
     }
 
     private void clearChatPanel() {
@@ -1408,6 +2180,8 @@ public class ChatInterface extends JFrame {
     private void performLogout() {
         // Stop message listener
         stopMessageListener();
+        Connectivity.removeListener(connectivityListener);
+        chatCache.invalidateAll();
         
         // Close current window
         this.dispose();
@@ -1443,8 +2217,8 @@ public class ChatInterface extends JFrame {
 
         // Avatar preview (perfectly round)
         int avatarSize = 90;
-        String currentAvatar = userCache.containsKey(currentUserEmail) ? userCache.get(currentUserEmail).avatar : "";
-        File avatarFile = (currentAvatar != null && !currentAvatar.isEmpty()) ? new File(currentAvatar) : null;
+        UserInfo self = userCache.get(currentUserEmail);
+        String currentAvatar = self != null ? self.avatar : "";
         String initial = currentUserEmail.substring(0, 1).toUpperCase();
         JPanel avatarPanel = new JPanel() {
             Image avatarImg = null;
@@ -1454,14 +2228,11 @@ public class ChatInterface extends JFrame {
                 setMaximumSize(new Dimension(avatarSize, avatarSize));
                 setMinimumSize(new Dimension(avatarSize, avatarSize));
                 setOpaque(false);
-                if (avatarFile != null && avatarFile.exists()) {
-                    try {
-                        avatarImg = new ImageIcon(avatarFile.getPath()).getImage().getScaledInstance(avatarSize, avatarSize, Image.SCALE_SMOOTH);
-                        hasImage = true;
-                    } catch (Exception e) {
-                        hasImage = false;
-                    }
-                }
+                loadAvatarImage(currentAvatar, avatarSize).thenAcceptAsync(image -> {
+                    avatarImg = image;
+                    hasImage = true;
+                    repaint();
+                }, FirebaseAuthService.EDT);
             }
             @Override
             protected void paintComponent(Graphics g) {
@@ -1597,69 +2368,52 @@ public class ChatInterface extends JFrame {
 
         // Save and delete actions (same as before)
         saveButton.addActionListener(e -> {
-            new Thread(() -> {
-                try {
-                    OkHttpClient client = new OkHttpClient();
-                    String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-                    String email = currentUserEmail;
-                    String getUrl = databaseUrl + "/users.json?orderBy=\"email\"&equalTo=\"" + email + "\"";
-                    Request getRequest = new Request.Builder().url(getUrl).get().build();
-                    Response getResponse = client.newCall(getRequest).execute();
-                    String getResponseBody = getResponse.body().string();
-                    JSONObject usersJson = new JSONObject(getResponseBody);
-                    if (usersJson.length() > 0) {
-                        String userKey = usersJson.keys().next();
-                        JSONObject userObj = usersJson.getJSONObject(userKey);
-                        userObj.put("displayName", nameField.getText().trim());
-                        userObj.put("avatar", selectedAvatarPath[0] != null ? selectedAvatarPath[0] : "");
-                        String putUrl = databaseUrl + "/users/" + userKey + ".json";
-                        RequestBody putBody = RequestBody.create(userObj.toString(), MediaType.parse("application/json; charset=utf-8"));
-                        Request putRequest = new Request.Builder().url(putUrl).put(putBody).build();
-                        client.newCall(putRequest).execute();
-                        SwingUtilities.invokeLater(() -> {
-                            dialog.dispose();
-                            fetchUsersAndGroups();
-                            chatList.repaint();
-                            JOptionPane.showMessageDialog(this, "Profile updated!\nIf you don't see the change, please restart the app.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                        });
-                    } else {
-                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "User not found in database.", "Error", JOptionPane.ERROR_MESSAGE));
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Failed to update profile.", "Error", JOptionPane.ERROR_MESSAGE));
+            String displayName = nameField.getText().trim();
+            String avatar = selectedAvatarPath[0] != null ? selectedAvatarPath[0] : "";
+            FirebaseAuthService.getUserByEmailAsync(currentUserEmail).thenCompose(getResponseBody -> {
+                JSONObject usersJson = new JSONObject(getResponseBody);
+                if (usersJson.length() == 0) {
+                    return CompletableFuture.completedFuture(false);
                 }
-            }).start();
+                String userKey = usersJson.keys().next();
+                JSONObject userObj = usersJson.getJSONObject(userKey);
+                userObj.put("displayName", displayName);
+                userObj.put("avatar", avatar);
+                return FirebaseAuthService.putAsync("/users/" + userKey + ".json", userObj.toString()).thenApply(body -> true);
+            }).whenCompleteAsync((updated, error) -> {
+                if (error != null) {
+                    FirebaseAuthService.rootCause(error).printStackTrace();
+                    JOptionPane.showMessageDialog(this, "Failed to update profile.", "Error", JOptionPane.ERROR_MESSAGE);
+                } else if (updated) {
+                    dialog.dispose();
+                    fetchUsersAndGroups();
+                    chatList.repaint();
+                    JOptionPane.showMessageDialog(this, "Profile updated!\nIf you don't see the change, please restart the app.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } else {
+                    JOptionPane.showMessageDialog(this, "User not found in database.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }, FirebaseAuthService.EDT);
         });
         deleteButton.addActionListener(e -> {
             int result = JOptionPane.showConfirmDialog(dialog, "Are you sure you want to delete your profile? This cannot be undone.", "Delete Profile", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (result == JOptionPane.YES_OPTION) {
-                new Thread(() -> {
-                    try {
-                        OkHttpClient client = new OkHttpClient();
-                        String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-                        String email = currentUserEmail;
-                        String getUrl = databaseUrl + "/users.json?orderBy=\"email\"&equalTo=\"" + email + "\"";
-                        Request getRequest = new Request.Builder().url(getUrl).get().build();
-                        Response getResponse = client.newCall(getRequest).execute();
-                        String getResponseBody = getResponse.body().string();
-                        JSONObject usersJson = new JSONObject(getResponseBody);
-                        if (usersJson.length() > 0) {
-                            String userKey = usersJson.keys().next();
-                            String deleteUrl = databaseUrl + "/users/" + userKey + ".json";
-                            Request deleteRequest = new Request.Builder().url(deleteUrl).delete().build();
-                            client.newCall(deleteRequest).execute();
-                            SwingUtilities.invokeLater(() -> {
-                                dialog.dispose();
-                                JOptionPane.showMessageDialog(this, "Profile deleted.", "Deleted", JOptionPane.INFORMATION_MESSAGE);
-                                logout();
-                            });
-                        }
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Failed to delete profile.", "Error", JOptionPane.ERROR_MESSAGE));
+                FirebaseAuthService.getUserByEmailAsync(currentUserEmail).thenCompose(getResponseBody -> {
+                    JSONObject usersJson = new JSONObject(getResponseBody);
+                    if (usersJson.length() == 0) {
+                        return CompletableFuture.completedFuture(false);
                     }
-                }).start();
+                    String userKey = usersJson.keys().next();
+                    return FirebaseAuthService.deleteAsync("/users/" + userKey + ".json").thenApply(body -> true);
+                }).whenCompleteAsync((deleted, error) -> {
+                    if (error != null) {
+                        FirebaseAuthService.rootCause(error).printStackTrace();
+                        JOptionPane.showMessageDialog(this, "Failed to delete profile.", "Error", JOptionPane.ERROR_MESSAGE);
+                    } else if (deleted) {
+                        dialog.dispose();
+                        JOptionPane.showMessageDialog(this, "Profile deleted.", "Deleted", JOptionPane.INFORMATION_MESSAGE);
+                        logout();
+                    }
+                }, FirebaseAuthService.EDT);
             }
         });
 
@@ -1695,14 +2449,20 @@ public class ChatInterface extends JFrame {
         String blobString = "profile_pictures/" + userId + ".png";
         Blob blob = bucket.create(blobString, new java.io.FileInputStream(file), "image/png");
         blob.createAcl(com.google.cloud.storage.Acl.of(com.google.cloud.storage.Acl.User.ofAllUsers(), com.google.cloud.storage.Acl.Role.READER));
-        return String.format("https://storage.googleapis.com/%s/%s", bucket.getName(), blobString);
+        // The object name never changes, so the URL carries the upload's generation:
+        // ContentCache keys on the URL and would otherwise keep serving the old picture
+        long version = blob.getGeneration() != null ? blob.getGeneration() : System.currentTimeMillis();
+        return String.format("https://storage.googleapis.com/%s/%s?v=%d", bucket.getName(), blobString, version);
     }
 
     // Helper to set a circular avatar from a URL
     private void setCircularAvatarFromUrl(JLabel label, String imageUrl, int size) {
-        try {
-            ImageIcon icon = new ImageIcon(new java.net.URL(imageUrl));
-            Image img = icon.getImage().getScaledInstance(size, size, Image.SCALE_SMOOTH);
+        loadAvatarImage(imageUrl, size).whenCompleteAsync((img, error) -> {
+            if (error != null) {
+                label.setIcon(null);
+                label.setText("?");
+                return;
+            }
             BufferedImage circleBuffer = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
             Graphics2D g2 = circleBuffer.createGraphics();
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -1711,10 +2471,39 @@ public class ChatInterface extends JFrame {
             g2.dispose();
             label.setIcon(new ImageIcon(circleBuffer));
             label.setText("");
-        } catch (Exception e) {
-            label.setIcon(null);
-            label.setText("?");
+        }, FirebaseAuthService.EDT);
+    }
+
+    // Decodes an avatar off the EDT, scaled to size. Avatars are Storage URLs, read through
+    // the disk cache; older profiles may still hold a local file path. Fails when there is none.
+    private CompletableFuture<Image> loadAvatarImage(String source, int size) {
+        if (source == null || source.isEmpty()) {
+            CompletableFuture<Image> none = new CompletableFuture<>();
+            none.completeExceptionally(new IOException("No avatar"));
+            return none;
         }
+        CompletableFuture<BufferedImage> decoded;
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            decoded = ContentCache.bytes(source).thenApply(bytes -> {
+                try {
+                    return ImageIO.read(ContentCache.inputStream(bytes));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } else {
+            decoded = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return ImageIO.read(new File(source));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        return decoded.thenApply(image -> {
+            if (image == null) throw new CompletionException(new IOException("Not an image: " + source));
+            return image.getScaledInstance(size, size, Image.SCALE_SMOOTH);
+        });
     }
 
     private void sendFileToCurrentChat() {
@@ -1743,36 +2532,21 @@ public class ChatInterface extends JFrame {
 
     private void sendFileMessageToChat(String fileName, String fileUrl, long fileSize) {
         if (currentChat == null) return;
-        try {
-            OkHttpClient client = new OkHttpClient();
-            String databaseUrl = FirebaseAuthService.getDatabaseUrl();
-            String chatId;
-            String toField;
-            if (currentChat.isGroup) {
-                GroupInfo group = (GroupInfo) currentChat.chatInfo;
-                chatId = "group_" + group.id;
-                toField = chatId;
-            } else {
-                UserInfo user = (UserInfo) currentChat.chatInfo;
-                chatId = getChatId(currentUserEmail, user.email);
-                toField = user.email;
-            }
-            long timestamp = System.currentTimeMillis();
-            String url = databaseUrl + "/messages/" + chatId + "/" + timestamp + ".json";
-            JSONObject msgObj = new JSONObject();
-            msgObj.put("from", currentUserEmail);
-            msgObj.put("to", toField);
-            msgObj.put("timestamp", timestamp);
-            msgObj.put("type", "file");
-            msgObj.put("fileName", fileName);
-            msgObj.put("fileUrl", fileUrl);
-            msgObj.put("fileSize", fileSize);
-            RequestBody body = RequestBody.create(msgObj.toString(), MediaType.parse("application/json; charset=utf-8"));
-            Request request = new Request.Builder().url(url).put(body).build();
-            client.newCall(request).execute();
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        String chatId;
+        String toField;
+        if (currentChat.isGroup) {
+            GroupInfo group = (GroupInfo) currentChat.chatInfo;
+            chatId = "group_" + group.id;
+            toField = chatId;
+        } else {
+            UserInfo user = (UserInfo) currentChat.chatInfo;
+            chatId = getChatId(currentUserEmail, user.email);
+            toField = user.email;
         }
+        String key = KeyGenerator.next();
+        Message msg = new Message(currentUserEmail, toField, "", KeyGenerator.timestampOf(key), false, "file", fileName, fileUrl, fileSize);
+        MessageOutbox.enqueue("messages/" + chatId + "/" + key, Codecs.MESSAGE.toJson(msg));
+        SwingUtilities.invokeLater(() -> showLocalMessage(chatId, key, msg));
     }
 
     private String readableFileSize(long size) {
@@ -1819,14 +2593,11 @@ public class ChatInterface extends JFrame {
                 setMaximumSize(new Dimension(avatarSize, avatarSize));
                 setMinimumSize(new Dimension(avatarSize, avatarSize));
                 setOpaque(false);
-                if (avatarUrl != null && !avatarUrl.isEmpty()) {
-                    try {
-                        avatarImg = new ImageIcon(new java.net.URL(avatarUrl)).getImage().getScaledInstance(avatarSize, avatarSize, Image.SCALE_SMOOTH);
-                        hasImage = true;
-                    } catch (Exception e) {
-                        hasImage = false;
-                    }
-                }
+                loadAvatarImage(avatarUrl, avatarSize).thenAcceptAsync(image -> {
+                    avatarImg = image;
+                    hasImage = true;
+                    repaint();
+                }, FirebaseAuthService.EDT);
             }
             @Override
             protected void paintComponent(Graphics g) {
@@ -28,7 +28,6 @@ import java.awt.event.MouseEvent;
 
 
 import org.json.JSONObject;
-import okhttp3.*;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.PasswordAuthentication;
@@ -37,6 +36,7 @@ import jakarta.mail.Transport;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class LoginInterface extends JFrame {
     private JTextField usernameField;
@@ -317,97 +317,104 @@ public class LoginInterface extends JFrame {
         statusLabel.setText("Authenticating...");
         statusLabel.setForeground(PRIMARY_COLOR);
 
-        // Perform login in background thread
-        new Thread(() -> {
-            try {
-                // Check if user is trying to log in with temporary code
-                if (isTemporaryPassword(password)) {
-                    boolean codeValid = verifyTemporaryCode(email, password);
-                    if (codeValid) {
-                        SwingUtilities.invokeLater(() -> {
-                            resetLoginButton();
-                            // Show password change dialog first
-                            showPasswordChangeDialog(email);
-                        });
-                        return;
-                    } else {
-                        SwingUtilities.invokeLater(() -> {
-                            resetLoginButton();
-                            showLoginError("Invalid or expired access code. Please request a new one.");
-                        });
-                        return;
-                    }
+        // Check if user is trying to log in with temporary code
+        if (isTemporaryPassword(password)) {
+            verifyTemporaryCode(email, password).whenCompleteAsync((codeValid, error) -> {
+                if (error != null) {
+                    loginFailed(FirebaseAuthService.rootCause(error));
+                    return;
                 }
+                resetLoginButton();
+                if (codeValid) {
+                    // Show password change dialog first
+                    showPasswordChangeDialog(email);
+                } else {
+                    showLoginError("Invalid or expired access code. Please request a new one.");
+                }
+            }, FirebaseAuthService.EDT);
+            return;
+        }
 
-                // Check if user exists in database first
-                String userResponse = FirebaseAuthService.getUserByEmail(email);
-                JSONObject userJson = new JSONObject(userResponse);
-
-                if (userJson.length() == 0) {
-                    SwingUtilities.invokeLater(() -> {
-                        resetLoginButton();
-                        showLoginError("Email or password incorrect.");
-                    });
-                    return;
+        // Check if user exists in database first
+        FirebaseAuthService.getUserByEmailAsync(email)
+                .thenCompose(userResponse -> checkPassword(new JSONObject(userResponse), email, password))
+                .whenCompleteAsync((passwordMatch, error) -> {
+            try {
+                if (error != null) {
+                    throw FirebaseAuthService.rootCause(error);
                 }
 
-                // Check password in database
-                boolean passwordMatch = false;
-                for (String key : userJson.keySet()) {
-                    JSONObject userObj = userJson.getJSONObject(key);
-                    String dbPassword = userObj.optString("password", "");
-                    if (dbPassword.equals(password)) {
-                        passwordMatch = true;
-                        break;
-                    }
+                if (passwordMatch == null) {
+                    resetLoginButton();
+                    showLoginError("Email or password incorrect.");
+                    return;
                 }
 
+                resetLoginButton();
                 if (passwordMatch) {
                     // Login successful
-                    SwingUtilities.invokeLater(() -> {
-                        resetLoginButton();
-                        if (rememberMeCheckbox != null && rememberMeCheckbox.isSelected()) {
-                            saveCredentials(email, password);
-                        } else {
-                            clearSavedCredentials();
-                        }
-                        showSuccessAnimation();
-                        // Show splash screen for loading chats in a background thread
-                        new Thread(() -> {
-                            UI.SplashScreen splash = new UI.SplashScreen("Loading chats", 0.4);
-                            splash.showSplashWithProgress();
-                            // After splash, open chat on EDT
-                            SwingUtilities.invokeLater(() -> {
-                                new ChatInterface(email).setVisible(true);
-                                LoginInterface.this.setVisible(false);
-                                LoginInterface.this.dispose();
-                            });
-                        }).start();
-                    });
+                    if (rememberMeCheckbox != null && rememberMeCheckbox.isSelected()) {
+                        saveCredentials(email, password);
+                    } else {
+                        clearSavedCredentials();
+                    }
+                    showSuccessAnimation();
+                    // Show splash screen for loading chats in a background thread
+                    new Thread(() -> {
+                        UI.SplashScreen splash = new UI.SplashScreen("Loading chats", 0.4);
+                        splash.showSplashWithProgress();
+                        // After splash, open chat on EDT
+                        SwingUtilities.invokeLater(() -> {
+                            new ChatInterface(email).setVisible(true);
+                            LoginInterface.this.setVisible(false);
+                            LoginInterface.this.dispose();
+                        });
+                    }).start();
                 } else {
                     // Wrong password
-                    SwingUtilities.invokeLater(() -> {
-                        resetLoginButton();
-                        showLoginError("Email or password incorrect.");
-                        loginAttempts++;
-                        if (loginAttempts >= MAX_LOGIN_ATTEMPTS) {
-                            startLockoutTimer();
-                        }
-                    });
-                }
-
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> {
-                    resetLoginButton();
-                    String errorMessage = parseExceptionError(ex);
-                    showLoginError(errorMessage);
+                    showLoginError("Email or password incorrect.");
                     loginAttempts++;
                     if (loginAttempts >= MAX_LOGIN_ATTEMPTS) {
                         startLockoutTimer();
                     }
-                });
+                }
+            } catch (Throwable ex) {
+                loginFailed(ex);
             }
-        }).start();
+        }, FirebaseAuthService.EDT);
+    }
+
+    // Null when no user has this email. The JDBC backend keeps only a hash of the
+    // password and leaves it out of profiles, so there the account sign-in checks it.
+    private static CompletableFuture<Boolean> checkPassword(JSONObject users, String email, String password) {
+        if (users.length() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean withoutPassword = false;
+        for (String key : users.keySet()) {
+            JSONObject userObj = users.getJSONObject(key);
+            if (!userObj.has("password")) {
+                withoutPassword = true;
+            } else if (userObj.optString("password", "").equals(password)) {
+                return CompletableFuture.completedFuture(true);
+            }
+        }
+        if (!withoutPassword) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return FirebaseAuthService.loginAsync(email, password)
+                .thenApply(body -> new JSONObject(body).has("localId"));
+    }
+
+    // Runs on the EDT when the login request itself failed
+    private void loginFailed(Throwable ex) {
+        resetLoginButton();
+        String errorMessage = parseExceptionError(ex);
+        showLoginError(errorMessage);
+        loginAttempts++;
+        if (loginAttempts >= MAX_LOGIN_ATTEMPTS) {
+            startLockoutTimer();
+        }
     }
 
     // Helper methods for login error handling
@@ -453,7 +460,7 @@ public class LoginInterface extends JFrame {
         loginButton.setText("Login");
     }
 
-    private String parseExceptionError(Exception ex) {
+    private String parseExceptionError(Throwable ex) {
         String message = ex.getMessage();
         if (message != null) {
             if (message.contains("INVALID_LOGIN_CREDENTIALS") ||
@@ -641,49 +648,41 @@ public class LoginInterface extends JFrame {
         statusLabel.setText("Verifying email address...");
         statusLabel.setForeground(PRIMARY_COLOR);
 
-        new Thread(() -> {
-            try {
-                // Check if email exists in database
-                String response = FirebaseAuthService.getUserByEmail(email);
-                JSONObject userResponse = new JSONObject(response);
-
-                if (userResponse.length() == 0) {
-                    // Email not found
-                    SwingUtilities.invokeLater(() -> {
-                        sendButton.setEnabled(true);
-                        sendButton.setText("Send Access Code");
-                        statusLabel.setText("No account found with this email address");
-                        statusLabel.setForeground(Color.RED);
-                    });
-                    return;
-                }
-
-                // Generate temporary 6-digit code
-                String tempCode = generateTemporaryCode();
-
-                // Store temporary code in Firebase (with expiration)
-                storeTemporaryCode(email, tempCode);
-
-
-                sendCodeEmail(email, tempCode);
-
-                SwingUtilities.invokeLater(() -> {
-                    statusLabel.setText("Access code sent successfully!");
-                    statusLabel.setForeground(new Color(0, 150, 0));
+        FirebaseAuthService.getUserByEmailAsync(email).thenCompose(response -> {
+            // Check if email exists in database
+            JSONObject userResponse = new JSONObject(response);
+            if (userResponse.length() == 0) {
+                return CompletableFuture.completedFuture(false);
+            }
 
-                    dialog.dispose();
-                });
+            // Generate temporary 6-digit code
+            String tempCode = generateTemporaryCode();
+
+            // Store temporary code in Firebase (with expiration), then mail it.
+            // SMTP is blocking, so it runs on the common pool rather than an OkHttp thread.
+            return storeTemporaryCode(email, tempCode)
+                    .thenRunAsync(() -> sendCodeEmail(email, tempCode))
+                    .thenApply(v -> true);
+        }).whenCompleteAsync((found, error) -> {
+            if (error != null) {
+                FirebaseAuthService.rootCause(error).printStackTrace();
+                sendButton.setEnabled(true);
+                sendButton.setText("Send Access Code");
+                statusLabel.setText("Failed to send code. Please try again.");
+                statusLabel.setForeground(Color.RED);
+            } else if (!found) {
+                // Email not found
+                sendButton.setEnabled(true);
+                sendButton.setText("Send Access Code");
+                statusLabel.setText("No account found with this email address");
+                statusLabel.setForeground(Color.RED);
+            } else {
+                statusLabel.setText("Access code sent successfully!");
+                statusLabel.setForeground(new Color(0, 150, 0));
 
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                SwingUtilities.invokeLater(() -> {
-                    sendButton.setEnabled(true);
-                    sendButton.setText("Send Access Code");
-                    statusLabel.setText("Failed to send code. Please try again.");
-                    statusLabel.setForeground(Color.RED);
-                });
+                dialog.dispose();
             }
-        }).start();
+        }, FirebaseAuthService.EDT);
     }
 
     // Generate 6-digit temporary code
@@ -692,9 +691,8 @@ public class LoginInterface extends JFrame {
     }
 
     // Store temporary code in Firebase with expiration (1 hour)
-    private void storeTemporaryCode(String email, String code) throws Exception {
-        String url = FirebaseAuthService.getDatabaseUrl() + "/temp_codes/" +
-                email.replace(".", "_").replace("@", "_") + ".json";
+    private CompletableFuture<String> storeTemporaryCode(String email, String code) {
+        String path = "/temp_codes/" + email.replace(".", "_").replace("@", "_") + ".json";
 
         long expirationTime = System.currentTimeMillis() + (60 * 60 * 1000); // 1 hour
 
@@ -704,13 +702,7 @@ public class LoginInterface extends JFrame {
         codeData.put("expiresAt", expirationTime);
         codeData.put("used", false);
 
-        OkHttpClient client = new OkHttpClient();
-        RequestBody body = RequestBody.create(codeData.toString(),
-                MediaType.parse("application/json; charset=utf-8"));
-        Request request = new Request.Builder().url(url).put(body).build();
-
-        Response response = client.newCall(request).execute();
-        response.close();
+        return FirebaseAuthService.putAsync(path, codeData.toString());
     }
 
     // Check if password is temporary code
@@ -719,40 +711,31 @@ public class LoginInterface extends JFrame {
     }
 
     // Verify temporary code during login
-    private boolean verifyTemporaryCode(String email, String code) throws Exception {
-        String url = FirebaseAuthService.getDatabaseUrl() + "/temp_codes/" +
-                email.replace(".", "_").replace("@", "_") + ".json";
+    private CompletableFuture<Boolean> verifyTemporaryCode(String email, String code) {
+        String path = "/temp_codes/" + email.replace(".", "_").replace("@", "_") + ".json";
 
-        OkHttpClient client = new OkHttpClient();
-        Request request = new Request.Builder().url(url).get().build();
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-
-        if (responseBody.equals("null")) {
-            return false;
-        }
-
-        JSONObject codeData = new JSONObject(responseBody);
-        String storedCode = codeData.optString("code", "");
-        long expirationTime = codeData.optLong("expiresAt", 0);
-        boolean used = codeData.optBoolean("used", true);
+        return FirebaseAuthService.getAsync(path).thenCompose(responseBody -> {
+            if (responseBody.equals("null")) {
+                return CompletableFuture.completedFuture(false);
+            }
 
-        // Check if code matches, hasn't expired, and hasn't been used
-        if (code.equals(storedCode) &&
-                System.currentTimeMillis() < expirationTime &&
-                !used) {
+            JSONObject codeData = new JSONObject(responseBody);
+            String storedCode = codeData.optString("code", "");
+            long expirationTime = codeData.optLong("expiresAt", 0);
+            boolean used = codeData.optBoolean("used", true);
 
-            // Mark code as used
-            codeData.put("used", true);
-            RequestBody body = RequestBody.create(codeData.toString(),
-                    MediaType.parse("application/json; charset=utf-8"));
-            Request updateRequest = new Request.Builder().url(url).put(body).build();
-            client.newCall(updateRequest).execute();
+            // Check if code matches, hasn't expired, and hasn't been used
+            if (code.equals(storedCode) &&
+                    System.currentTimeMillis() < expirationTime &&
+                    !used) {
 
-            return true;
-        }
+                // Mark code as used
+                codeData.put("used", true);
+                return FirebaseAuthService.putAsync(path, codeData.toString()).thenApply(r -> true);
+            }
 
-        return false;
+            return CompletableFuture.completedFuture(false);
+        });
     }
 
     // Send email with temporary code
@@ -912,63 +895,50 @@ public class LoginInterface extends JFrame {
         button.setEnabled(false);
         button.setText("Updating...");
 
-        new Thread(() -> {
-            try {
-                // Get user data first
-                String response = FirebaseAuthService.getUserByEmail(email);
-                JSONObject userResponse = new JSONObject(response);
-
-                if (userResponse.length() > 0) {
-                    // Get the user key and update password
-                    String userKey = userResponse.keys().next();
-                    JSONObject userData = userResponse.getJSONObject(userKey);
-
-                    // Update the password in the user data
-                    userData.put("password", newPassword);
+        // Get user data first
+        FirebaseAuthService.getUserByEmailAsync(email).thenCompose(response -> {
+            JSONObject userResponse = new JSONObject(response);
+            if (userResponse.length() == 0) {
+                return CompletableFuture.completedFuture(false);
+            }
 
-                    // Store updated user data back to Firebase
-                    String updateUrl = FirebaseAuthService.getDatabaseUrl() + "/users/" + userKey + ".json";
-                    OkHttpClient client = new OkHttpClient();
-                    RequestBody body = RequestBody.create(userData.toString(),
-                            MediaType.parse("application/json; charset=utf-8"));
-                    Request request = new Request.Builder().url(updateUrl).put(body).build();
+            // Get the user key and update password
+            String userKey = userResponse.keys().next();
+            JSONObject userData = userResponse.getJSONObject(userKey);
 
-                    Response updateResponse = client.newCall(request).execute();
+            // Update the password in the user data
+            userData.put("password", newPassword);
 
-                    if (updateResponse.isSuccessful()) {
-                        SwingUtilities.invokeLater(() -> {
-                            statusLabel.setText("Password updated successfully!");
-                            statusLabel.setForeground(new Color(0, 150, 0));
-
-                            // Close dialog and proceed to chat after a short delay
-                            Timer timer = new Timer();
-                            timer.schedule(new TimerTask() {
-                                @Override
-                                public void run() {
-                                    SwingUtilities.invokeLater(() -> {
-                                        dialog.dispose();
-                                        new ChatInterface(email).setVisible(true);
-                                        LoginInterface.this.setVisible(false);
-                                        LoginInterface.this.dispose();
-                                    });
-                                }
-                            }, 1500);
-                        });
-                    } else {
-                        throw new Exception("Failed to update password");
-                    }
+            // Store updated user data back to Firebase
+            return FirebaseAuthService.putAsync("/users/" + userKey + ".json", userData.toString()).thenApply(r -> true);
+        }).whenCompleteAsync((updated, error) -> {
+            if (error != null || !updated) {
+                if (error != null) {
+                    FirebaseAuthService.rootCause(error).printStackTrace();
                 }
-
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                SwingUtilities.invokeLater(() -> {
-                    button.setEnabled(true);
-                    button.setText("Update Password");
-                    statusLabel.setText("Failed to update password. Please try again.");
-                    statusLabel.setForeground(Color.RED);
-                });
+                button.setEnabled(true);
+                button.setText("Update Password");
+                statusLabel.setText("Failed to update password. Please try again.");
+                statusLabel.setForeground(Color.RED);
+                return;
             }
-        }).start();
+            statusLabel.setText("Password updated successfully!");
+            statusLabel.setForeground(new Color(0, 150, 0));
+
+            // Close dialog and proceed to chat after a short delay
+            Timer timer = new Timer();
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    SwingUtilities.invokeLater(() -> {
+                        dialog.dispose();
+                        new ChatInterface(email).setVisible(true);
+                        LoginInterface.this.setVisible(false);
+                        LoginInterface.this.dispose();
+                    });
+                }
+            }, 1500);
+        }, FirebaseAuthService.EDT);
     }
 
     // Email validation method
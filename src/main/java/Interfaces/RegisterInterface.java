@@ -114,48 +114,67 @@ public class RegisterInterface extends JDialog {
                 return;
             }
         
-            try {
-                String registerResponse = FirebaseAuthService.register(email, password);
-                System.out.println("Firebase register response: " + registerResponse);
-        
-                org.json.JSONObject json = new org.json.JSONObject(registerResponse);
-        
-                if (json.has("error")) {
-                    Object errorObj = json.get("error");
-                    String errorMessage = errorObj.toString();
-                    JOptionPane.showMessageDialog(this,
-                            "Registration failed: " + errorMessage,
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-        
-                String localId = json.optString("localId", null);
-                if (localId == null) {
-                    JOptionPane.showMessageDialog(this,
-                            "Registration failed. Could not get user ID.",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-        
-                // Store user data in Firebase Realtime Database
-                String storeResponse = FirebaseAuthService.storeUserData(localId, name, username, email, password);
-                System.out.println("Store user response: " + storeResponse);
-                if (storeResponse != null && storeResponse.contains(email)) {
-                    JOptionPane.showMessageDialog(this,
-                            "Account created successfully!\nPlease check your email to activate your account.",
-                            "Account Created", JOptionPane.INFORMATION_MESSAGE);
-                    dispose();
-                } else {
+            createAccountButton.setEnabled(false);
+            FirebaseAuthService.registerAsync(email, password).whenCompleteAsync((registerResponse, error) -> {
+                try {
+                    if (error != null) {
+                        throw FirebaseAuthService.rootCause(error);
+                    }
+                    System.out.println("Firebase register response: " + registerResponse);
+
+                    org.json.JSONObject json = new org.json.JSONObject(registerResponse);
+
+                    if (json.has("error")) {
+                        Object errorObj = json.get("error");
+                        String errorMessage = errorObj.toString();
+                        JOptionPane.showMessageDialog(this,
+                                "Registration failed: " + errorMessage,
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                        createAccountButton.setEnabled(true);
+                        return;
+                    }
+
+                    String localId = json.optString("localId", null);
+                    if (localId == null) {
+                        JOptionPane.showMessageDialog(this,
+                                "Registration failed. Could not get user ID.",
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                        createAccountButton.setEnabled(true);
+                        return;
+                    }
+
+                    // Store user data in Firebase Realtime Database
+                    FirebaseAuthService.storeUserDataAsync(localId, name, username, email, password)
+                            .whenCompleteAsync((storeResponse, storeError) -> {
+                                createAccountButton.setEnabled(true);
+                                if (storeError != null) {
+                                    Throwable cause = FirebaseAuthService.rootCause(storeError);
+                                    cause.printStackTrace();
+                                    JOptionPane.showMessageDialog(this,
+                                            "Error: " + cause.getMessage(),
+                                            "Error", JOptionPane.ERROR_MESSAGE);
+                                    return;
+                                }
+                                System.out.println("Store user response: " + storeResponse);
+                                if (storeResponse != null && storeResponse.contains(email)) {
+                                    JOptionPane.showMessageDialog(this,
+                                            "Account created successfully!\nPlease check your email to activate your account.",
+                                            "Account Created", JOptionPane.INFORMATION_MESSAGE);
+                                    dispose();
+                                } else {
+                                    JOptionPane.showMessageDialog(this,
+                                            "Failed to store user data.",
+                                            "Error", JOptionPane.ERROR_MESSAGE);
+                                }
+                            }, FirebaseAuthService.EDT);
+                } catch (Throwable ex) {
+                    ex.printStackTrace();
+                    createAccountButton.setEnabled(true);
                     JOptionPane.showMessageDialog(this,
-                            "Failed to store user data.",
+                            "Error: " + ex.getMessage(),
                             "Error", JOptionPane.ERROR_MESSAGE);
                 }
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(this,
-                        "Error: " + ex.getMessage(),
-                        "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            }, FirebaseAuthService.EDT);
         });
 
         regPanel.add(titleLabel);
@@ -0,0 +1,147 @@
+package UI;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import model.ChatItem;
+
+// Chat list model that keeps one ChatItem per user or group for as long as the
+// entity exists. Filtering and data changes recompute the visible rows and fire
+// only the removed/added ranges and changed rows between the old and new lists,
+// so the selection and scroll position stay put and nothing is reallocated.
+// Users come before groups, each in the order they first appeared. EDT only.
+public class ChatListModel extends AbstractListModel<ChatItem> {
+    // Every known entity in display order; the rank is its position in that order
+    private final TreeMap<Long, ChatItem> all = new TreeMap<>();
+    private final Map<String, ChatItem> byKey = new HashMap<>();
+    private final Map<ChatItem, Long> ranks = new IdentityHashMap<>();
+    private long nextUserRank = 0;
+    private long nextGroupRank = Long.MAX_VALUE / 2;
+    private Predicate<ChatItem> filter = item -> true;
+
+    // Rows as listeners see them: while a diff is applied this is the new rows
+    // built so far followed by the old rows not yet walked
+    private List<ChatItem> head = new ArrayList<>();
+    private List<ChatItem> tail = Collections.emptyList();
+    private int tailFrom = 0;
+
+    // Visible row of each item, rebuilt lazily after a change
+    private Map<ChatItem, Integer> rowIndex;
+
+    @Override
+    public int getSize() {
+        return head.size() + tail.size() - tailFrom;
+    }
+
+    @Override
+    public ChatItem getElementAt(int index) {
+        return index < head.size() ? head.get(index) : tail.get(index - head.size() + tailFrom);
+    }
+
+    public ChatItem get(String key, boolean isGroup) {
+        return byKey.get(keyOf(key, isGroup));
+    }
+
+    // Visible row of item, or -1 when it is filtered out or unknown
+    public int indexOf(ChatItem item) {
+        if (rowIndex == null) {
+            rowIndex = new IdentityHashMap<>();
+            for (int i = 0; i < head.size(); i++) {
+                rowIndex.put(head.get(i), i);
+            }
+        }
+        Integer row = rowIndex.get(item);
+        return row == null ? -1 : row;
+    }
+
+    public void setFilter(Predicate<ChatItem> filter) {
+        this.filter = filter;
+        refresh(Collections.emptySet());
+    }
+
+    // Adds or updates the given users or groups and drops the removed ones, reusing
+    // the existing ChatItem for an update so references to it see the new info
+    public void update(Map<String, ?> upserts, Collection<String> removed, boolean isGroup) {
+        Set<ChatItem> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<ChatItem> dropped = new ArrayList<>();
+        for (String key : removed) {
+            ChatItem item = byKey.remove(keyOf(key, isGroup));
+            if (item != null) {
+                all.remove(ranks.get(item));
+                dropped.add(item);
+            }
+        }
+        for (Map.Entry<String, ?> entry : upserts.entrySet()) {
+            String key = keyOf(entry.getKey(), isGroup);
+            ChatItem item = byKey.get(key);
+            if (item == null) {
+                item = new ChatItem(entry.getValue(), isGroup);
+                long rank = isGroup ? nextGroupRank++ : nextUserRank++;
+                byKey.put(key, item);
+                ranks.put(item, rank);
+                all.put(rank, item);
+            } else if (item.chatInfo != entry.getValue()) {
+                item.chatInfo = entry.getValue();
+                changed.add(item);
+            }
+        }
+        refresh(changed);
+        // Ranks of dropped items were needed to place them in the walk above
+        for (ChatItem item : dropped) {
+            ranks.remove(item);
+        }
+    }
+
+    private void refresh(Set<ChatItem> changed) {
+        List<ChatItem> target = new ArrayList<>();
+        for (ChatItem item : all.values()) {
+            if (filter.test(item)) target.add(item);
+        }
+        List<ChatItem> old = head;
+        head = new ArrayList<>(target.size());
+        tail = old;
+        tailFrom = 0;
+        rowIndex = null;
+
+        // Both lists follow the same rank order, so one merge walk finds the differences
+        int i = 0;
+        int j = 0;
+        while (i < old.size() || j < target.size()) {
+            ChatItem o = i < old.size() ? old.get(i) : null;
+            ChatItem n = j < target.size() ? target.get(j) : null;
+            if (o == n) {
+                head.add(n);
+                tailFrom = ++i;
+                j++;
+                if (changed.contains(n)) {
+                    fireContentsChanged(this, head.size() - 1, head.size() - 1);
+                }
+            } else if (n == null || (o != null && ranks.get(o) < ranks.get(n))) {
+                int start = i;
+                while (i < old.size() && (n == null || ranks.get(old.get(i)) < ranks.get(n))) i++;
+                tailFrom = i;
+                fireIntervalRemoved(this, head.size(), head.size() + i - start - 1);
+            } else {
+                int start = head.size();
+                while (j < target.size() && (o == null || ranks.get(target.get(j)) < ranks.get(o))) {
+                    head.add(target.get(j++));
+                }
+                fireIntervalAdded(this, start, head.size() - 1);
+            }
+        }
+        tail = Collections.emptyList();
+        tailFrom = 0;
+    }
+
+    private static String keyOf(String key, boolean isGroup) {
+        return (isGroup ? "g:" : "u:") + key;
+    }
+}
@@ -0,0 +1,105 @@
+package model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+// Local calendar days present in a MessageStore, as a sorted long[] of day-start
+// millis with a message count per day. Kept up to date as rows come and go, so
+// the renderer can find a message's day with a binary search instead of
+// formatting its timestamp, and "jump to date" can tell which days are loaded.
+public class DayIndex {
+    private final ZoneId zone;
+    private long[] starts = new long[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    // Bounds of the day computed last; consecutive messages nearly always share it
+    private long cachedStart = Long.MAX_VALUE;
+    private long cachedEnd = Long.MIN_VALUE;
+
+    public DayIndex() {
+        this(ZoneId.systemDefault());
+    }
+
+    public DayIndex(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long day(int i) {
+        return starts[i];
+    }
+
+    public boolean contains(long dayStart) {
+        return Arrays.binarySearch(starts, 0, size, dayStart) >= 0;
+    }
+
+    // Day of a timestamp that belongs to a row in the store: the last day starting at or before it
+    public long dayOf(long timestamp) {
+        int i = Arrays.binarySearch(starts, 0, size, timestamp);
+        if (i < 0) i = -i - 2;
+        return i < 0 ? -1 : starts[i];
+    }
+
+    // First indexed day at or after dayStart, or -1
+    public long ceilingDay(long dayStart) {
+        int i = Arrays.binarySearch(starts, 0, size, dayStart);
+        if (i < 0) i = -i - 1;
+        return i < size ? starts[i] : -1;
+    }
+
+    public void add(long timestamp) {
+        long start = startOfDay(timestamp);
+        int i = Arrays.binarySearch(starts, 0, size, start);
+        if (i >= 0) {
+            counts[i]++;
+            return;
+        }
+        i = -i - 1;
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        System.arraycopy(starts, i, starts, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        starts[i] = start;
+        counts[i] = 1;
+        size++;
+    }
+
+    public void remove(long timestamp) {
+        int i = Arrays.binarySearch(starts, 0, size, startOfDay(timestamp));
+        if (i < 0) return;
+        if (--counts[i] > 0) return;
+        System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+        System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+        size--;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long startOfDay(long timestamp) {
+        if (timestamp >= cachedStart && timestamp < cachedEnd) {
+            return cachedStart;
+        }
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        cachedStart = startOf(date);
+        cachedEnd = startOf(date.plusDays(1));
+        return cachedStart;
+    }
+
+    public long startOf(LocalDate date) {
+        return date.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    public LocalDate dateOf(long dayStart) {
+        return Instant.ofEpochMilli(dayStart).atZone(zone).toLocalDate();
+    }
+}
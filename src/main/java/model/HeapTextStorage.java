@@ -0,0 +1,61 @@
+package model;
+
+import java.util.Arrays;
+
+// Plain String slots, recycled through a free list
+public class HeapTextStorage implements TextStorage {
+    private String[] slots = new String[64];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int used;
+    private int live;
+    private long chars;
+
+    @Override
+    public int put(String text) {
+        int ref;
+        if (freeCount > 0) {
+            ref = freeSlots[--freeCount];
+        } else {
+            if (used == slots.length) {
+                slots = Arrays.copyOf(slots, used + (used >> 1));
+            }
+            ref = used++;
+        }
+        slots[ref] = text;
+        live++;
+        chars += text.length();
+        return ref;
+    }
+
+    @Override
+    public String get(int ref) {
+        return slots[ref];
+    }
+
+    @Override
+    public void free(int ref) {
+        live--;
+        chars -= slots[ref].length();
+        slots[ref] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = ref;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, 0, used, null);
+        used = 0;
+        freeCount = 0;
+        live = 0;
+        chars = 0;
+    }
+
+    // About 40 bytes of String and array headers per text, plus two bytes a char
+    @Override
+    public long sizeInBytes() {
+        return (long) slots.length * 8 + (long) freeSlots.length * 4 + live * 40L + chars * 2;
+    }
+}
@@ -0,0 +1,264 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Messages of one chat held column by column instead of as Message objects.
+// Rows are kept in key order, which is the database's "$key" order and, for the
+// timestamp keys we write, chronological. Sender and recipient emails are interned
+// into a small table so each row stores two ints instead of two strings, and the
+// bodies sit in a TextStorage (on the heap, or in an off-heap arena).
+public class MessageStore {
+
+    public enum Change { APPENDED, INSERTED, REPLACED, UNCHANGED }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] senders = new int[INITIAL_CAPACITY];
+    private int[] recipients = new int[INITIAL_CAPACITY];
+    private int[] textRefs = new int[INITIAL_CAPACITY];
+    // Only file rows have an entry; everything else stays null
+    private FileRef[] files = new FileRef[INITIAL_CAPACITY];
+    private final BitSet system = new BitSet();
+    private int size;
+    private final TextStorage textStorage;
+    private final DayIndex days = new DayIndex();
+
+    private final List<String> people = new ArrayList<>();
+    private final Map<String, Integer> peopleIndex = new HashMap<>();
+
+    private static class FileRef {
+        final String type, fileName, fileUrl;
+        final long fileSize;
+
+        FileRef(String type, String fileName, String fileUrl, long fileSize) {
+            this.type = type;
+            this.fileName = fileName;
+            this.fileUrl = fileUrl;
+            this.fileSize = fileSize;
+        }
+    }
+
+    public MessageStore() {
+        this(new HeapTextStorage());
+    }
+
+    public MessageStore(TextStorage textStorage) {
+        this.textStorage = textStorage;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(files, 0, size, null);
+        textStorage.clear();
+        system.clear();
+        size = 0;
+        people.clear();
+        peopleIndex.clear();
+        days.clear();
+    }
+
+    public boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public String oldestKey() {
+        return size == 0 ? null : keys[0];
+    }
+
+    public String newestKey() {
+        return size == 0 ? null : keys[size - 1];
+    }
+
+    // Adds or replaces the row for key. Newer keys take the append fast path;
+    // late arrivals are placed by binary search.
+    public Change upsert(String key, Message msg) {
+        if (size == 0 || key.compareTo(keys[size - 1]) > 0) {
+            insertAt(size, key, msg);
+            return Change.APPENDED;
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            if (matches(index, msg)) return Change.UNCHANGED;
+            textStorage.free(textRefs[index]);
+            days.remove(timestamps[index]);
+            setRow(index, key, msg);
+            return Change.REPLACED;
+        }
+        insertAt(-index - 1, key, msg);
+        return Change.INSERTED;
+    }
+
+    public boolean remove(String key) {
+        int index = indexOf(key);
+        if (index < 0) return false;
+        textStorage.free(textRefs[index]);
+        days.remove(timestamps[index]);
+        int tail = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, tail);
+        System.arraycopy(timestamps, index + 1, timestamps, index, tail);
+        System.arraycopy(senders, index + 1, senders, index, tail);
+        System.arraycopy(recipients, index + 1, recipients, index, tail);
+        System.arraycopy(textRefs, index + 1, textRefs, index, tail);
+        System.arraycopy(files, index + 1, files, index, tail);
+        for (int i = index; i < size - 1; i++) {
+            system.set(i, system.get(i + 1));
+        }
+        size--;
+        system.clear(size);
+        keys[size] = null;
+        files[size] = null;
+        return true;
+    }
+
+    // Rough heap (and arena) bytes held by this store: the columns at their capacity,
+    // the key and file strings, interned emails and the bodies
+    public long sizeInBytes() {
+        long bytes = (long) keys.length * 36 + system.size() / 8 + (long) days.size() * 12;
+        for (int row = 0; row < size; row++) {
+            bytes += 40 + keys[row].length();
+            FileRef file = files[row];
+            if (file != null) {
+                bytes += 120 + length(file.fileName) + length(file.fileUrl);
+            }
+        }
+        for (String person : people) {
+            bytes += 80 + person.length();
+        }
+        return bytes + textStorage.sizeInBytes();
+    }
+
+    // Frees the bodies' storage for good, e.g. when the chat cache evicts this store
+    public void release() {
+        clear();
+        textStorage.release();
+    }
+
+    // Local days that have at least one row, kept in step with every change
+    public DayIndex days() {
+        return days;
+    }
+
+    // Column accessors read a row in place, without building a Message
+    public String key(int row) {
+        return keys[row];
+    }
+
+    public long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    public String from(int row) {
+        return people.get(senders[row]);
+    }
+
+    public String to(int row) {
+        return people.get(recipients[row]);
+    }
+
+    // With an arena this decodes the body, so call it only for rows being shown
+    public String text(int row) {
+        return textStorage.get(textRefs[row]);
+    }
+
+    public boolean isSystem(int row) {
+        return system.get(row);
+    }
+
+    public boolean isFile(int row) {
+        return files[row] != null;
+    }
+
+    // Builds a Message for one row, e.g. for the bubble being rendered
+    public Message message(int row) {
+        FileRef file = files[row];
+        return new Message(from(row), to(row), text(row), timestamps[row], system.get(row),
+                file == null ? null : file.type,
+                file == null ? null : file.fileName,
+                file == null ? null : file.fileUrl,
+                file == null ? 0 : file.fileSize);
+    }
+
+    private int indexOf(String key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private boolean matches(int row, Message msg) {
+        FileRef file = files[row];
+        return timestamps[row] == msg.timestamp
+                && system.get(row) == msg.isSystem
+                && Objects.equals(from(row), msg.from)
+                && Objects.equals(text(row), msg.text == null ? "" : msg.text)
+                && Objects.equals(file == null ? null : file.fileUrl, msg.fileUrl);
+    }
+
+    private void insertAt(int index, String key, Message msg) {
+        ensureCapacity(size + 1);
+        int tail = size - index;
+        if (tail > 0) {
+            System.arraycopy(keys, index, keys, index + 1, tail);
+            System.arraycopy(timestamps, index, timestamps, index + 1, tail);
+            System.arraycopy(senders, index, senders, index + 1, tail);
+            System.arraycopy(recipients, index, recipients, index + 1, tail);
+            System.arraycopy(textRefs, index, textRefs, index + 1, tail);
+            System.arraycopy(files, index, files, index + 1, tail);
+            for (int i = size; i > index; i--) {
+                system.set(i, system.get(i - 1));
+            }
+        }
+        size++;
+        setRow(index, key, msg);
+    }
+
+    private void setRow(int index, String key, Message msg) {
+        keys[index] = key;
+        timestamps[index] = msg.timestamp;
+        days.add(msg.timestamp);
+        senders[index] = intern(msg.from);
+        recipients[index] = intern(msg.to);
+        textRefs[index] = textStorage.put(msg.text == null ? "" : msg.text);
+        files[index] = msg.type == null ? null : new FileRef(msg.type, msg.fileName, msg.fileUrl, msg.fileSize);
+        system.set(index, msg.isSystem);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private int intern(String email) {
+        String value = email == null ? "" : email;
+        Integer id = peopleIndex.get(value);
+        if (id == null) {
+            id = people.size();
+            people.add(value);
+            peopleIndex.put(value, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= keys.length) return;
+        int capacity = Math.max(needed, keys.length + (keys.length >> 1));
+        keys = Arrays.copyOf(keys, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        senders = Arrays.copyOf(senders, capacity);
+        recipients = Arrays.copyOf(recipients, capacity);
+        textRefs = Arrays.copyOf(textRefs, capacity);
+        files = Arrays.copyOf(files, capacity);
+    }
+}
@@ -0,0 +1,212 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Message bodies as UTF-8 bytes outside the Java heap: either a direct buffer or
+// a memory-mapped temp file. An offset/length table maps each reference to its
+// bytes; a String only exists while someone is reading it. Freed bytes are
+// reclaimed by compacting once they make up half of the arena.
+public class TextArena implements TextStorage {
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final int COMPACT_MIN_BYTES = 1 << 20;
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+    private final boolean mapped;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private int top;
+    private long deadBytes;
+
+    private int[] offsets = new int[64];
+    // -1 marks a free slot
+    private int[] lengths = new int[64];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    public TextArena(boolean mapped) {
+        this.mapped = mapped;
+        if (mapped) {
+            openFile();
+        }
+        buffer = allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int put(String text) {
+        byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        if (deadBytes > COMPACT_MIN_BYTES && deadBytes * 2 > top) {
+            compact();
+        }
+        ensureCapacity(top + bytes.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(top);
+        view.put(bytes);
+
+        int ref = newSlot();
+        offsets[ref] = top;
+        lengths[ref] = bytes.length;
+        top += bytes.length;
+        return ref;
+    }
+
+    @Override
+    public String get(int ref) {
+        int length = lengths[ref];
+        if (length <= 0) return "";
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offsets[ref]);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void free(int ref) {
+        deadBytes += lengths[ref];
+        lengths[ref] = -1;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = ref;
+    }
+
+    @Override
+    public void clear() {
+        reset();
+        // Give back whatever a large chat grew the arena to. A file cannot be truncated
+        // while mapped (Windows refuses), so a mapped arena moves to a fresh file instead.
+        if (buffer.capacity() > INITIAL_CAPACITY) {
+            if (mapped) {
+                closeFile();
+                openFile();
+            }
+            buffer = allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    // The arena's whole capacity counts: it is reserved whether or not it is filled
+    @Override
+    public long sizeInBytes() {
+        return buffer.capacity() + (long) offsets.length * 8 + (long) freeSlots.length * 4;
+    }
+
+    // Closing the channel deletes the temp file; the buffer goes when it is collected
+    @Override
+    public void release() {
+        reset();
+        buffer = RELEASED;
+        if (mapped) {
+            closeFile();
+        }
+    }
+
+    public long getUsedBytes() {
+        return top - deadBytes;
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    private void reset() {
+        top = 0;
+        deadBytes = 0;
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    private void openFile() {
+        try {
+            Path file = Files.createTempFile("linkapp-text", ".arena");
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The old mapping stays valid until collected; only the file handle goes now
+    private void closeFile() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int newSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, slotCount * 2);
+            lengths = Arrays.copyOf(lengths, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= buffer.capacity()) return;
+        if (needed < 0) {
+            throw new IllegalStateException("Text arena is limited to 2 GB");
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, (long) buffer.capacity() * 2));
+        ByteBuffer grown = allocate(capacity);
+        if (!mapped) {
+            // A mapped file keeps its bytes when the mapping grows; a direct buffer has to be copied
+            ByteBuffer used = buffer.duplicate();
+            used.position(0).limit(top);
+            grown.put(used);
+        }
+        buffer = grown;
+    }
+
+    // Slides live texts down over the freed gaps, keeping their references
+    private void compact() {
+        Integer[] live = new Integer[slotCount - freeCount];
+        int n = 0;
+        for (int ref = 0; ref < slotCount; ref++) {
+            if (lengths[ref] >= 0) live[n++] = ref;
+        }
+        Arrays.sort(live, (a, b) -> Integer.compare(offsets[a], offsets[b]));
+
+        ByteBuffer source = buffer.duplicate();
+        ByteBuffer target = buffer.duplicate();
+        int position = 0;
+        for (int ref : live) {
+            int length = lengths[ref];
+            if (offsets[ref] != position && length > 0) {
+                byte[] bytes = new byte[length];
+                source.position(offsets[ref]);
+                source.get(bytes);
+                target.position(position);
+                target.put(bytes);
+            }
+            offsets[ref] = position;
+            position += length;
+        }
+        top = position;
+        deadBytes = 0;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        if (!mapped) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
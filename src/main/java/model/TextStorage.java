@@ -0,0 +1,36 @@
+package model;
+
+// Where MessageStore keeps message bodies. Each stored text gets an int
+// reference that stays valid until it is freed.
+public interface TextStorage {
+
+    int put(String text);
+
+    String get(int ref);
+
+    void free(int ref);
+
+    // Drops every text, e.g. when another chat is opened
+    void clear();
+
+    // Rough memory held, in bytes, for weighing a chat in the chat cache
+    long sizeInBytes();
+
+    // Gives back everything held; the storage is not used again afterwards
+    default void release() {
+        clear();
+    }
+
+    // "heap" (default), "offheap" for a direct-buffer arena, or "mmap" for a
+    // memory-mapped temp file
+    static TextStorage create(String mode) {
+        switch (mode == null ? "heap" : mode.trim().toLowerCase()) {
+            case "offheap":
+                return new TextArena(false);
+            case "mmap":
+                return new TextArena(true);
+            default:
+                return new HeapTextStorage();
+        }
+    }
+}
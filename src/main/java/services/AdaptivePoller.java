@@ -0,0 +1,128 @@
+package services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Polls on a self-adjusting schedule. The poll reports whether it found anything;
+// activity snaps the interval back to the minimum, quiet polls double it up to the
+// maximum. Intervals get +/-20% jitter so many idle clients do not line up.
+// The next poll is only scheduled once the previous one has completed.
+public class AdaptivePoller {
+    private static final long MIN_INTERVAL_MS = FirebaseAuthService.getIntSetting("POLL_MIN_MS", 1000);
+    private static final long MAX_INTERVAL_MS = FirebaseAuthService.getIntSetting("POLL_MAX_MS", 30_000);
+    // Lowest interval while the window is open but not focused
+    private static final long BACKGROUND_INTERVAL_MS = FirebaseAuthService.getIntSetting("POLL_BACKGROUND_MS", 5000);
+    private static final double JITTER = 0.2;
+
+    private final Supplier<CompletableFuture<Boolean>> poll;
+    private final ScheduledExecutorService executor;
+
+    private long intervalMs = MIN_INTERVAL_MS;
+    private boolean background;
+    private boolean paused;
+    private boolean running;
+    private boolean stopped;
+    private ScheduledFuture<?> next;
+
+    public AdaptivePoller(String name, Supplier<CompletableFuture<Boolean>> poll) {
+        this.poll = poll;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public synchronized void start() {
+        scheduleAt(0);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (next != null) next.cancel(false);
+        executor.shutdownNow();
+    }
+
+    // Window iconified: no polls at all until resume()
+    public synchronized void pause() {
+        paused = true;
+        if (next != null) next.cancel(false);
+        next = null;
+    }
+
+    // Window restored or focused: poll now and return to the fastest rate
+    public synchronized void resume() {
+        paused = false;
+        background = false;
+        intervalMs = MIN_INTERVAL_MS;
+        scheduleAt(0);
+    }
+
+    // Window lost focus but is still visible
+    public synchronized void setBackground(boolean background) {
+        this.background = background;
+        if (background) {
+            intervalMs = Math.max(intervalMs, BACKGROUND_INTERVAL_MS);
+        }
+    }
+
+    // Something happened locally (e.g. we sent a message): expect replies soon
+    public synchronized void activity() {
+        intervalMs = floor();
+        scheduleAt(0);
+    }
+
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    private long floor() {
+        return background ? BACKGROUND_INTERVAL_MS : MIN_INTERVAL_MS;
+    }
+
+    private void scheduleAt(long delayMs) {
+        if (stopped || paused) return;
+        if (running) return; // the poll in progress reschedules when it completes
+        if (next != null) next.cancel(false);
+        next = executor.schedule(this::runPoll, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runPoll() {
+        synchronized (this) {
+            if (stopped || paused || running) return;
+            running = true;
+            next = null;
+        }
+        CompletableFuture<Boolean> result;
+        try {
+            result = poll.get();
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((found, error) -> {
+            synchronized (this) {
+                running = false;
+                if (error != null) {
+                    // Back off on failures too rather than hammering a struggling server
+                    intervalMs = Math.min(intervalMs * 2, MAX_INTERVAL_MS);
+                } else if (Boolean.TRUE.equals(found)) {
+                    intervalMs = floor();
+                } else {
+                    intervalMs = Math.max(floor(), Math.min(intervalMs * 2, MAX_INTERVAL_MS));
+                }
+                scheduleAt(jittered(intervalMs));
+            }
+        });
+    }
+
+    private static long jittered(long ms) {
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Math.max(0, (long) (ms * factor));
+    }
+}
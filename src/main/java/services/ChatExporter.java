@@ -0,0 +1,271 @@
+package services;
+
+import com.google.gson.stream.JsonWriter;
+import model.Message;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Exports a whole chat to a ZIP: messages.ndjson with one {"key", "message"} object per
+// line in key order, optionally the attachments under attachments/, and manifest.json.
+// History is read a page at a time with "$key" cursors and written out before the next
+// page is fetched, so memory stays at one page however long the chat is. Attachment
+// URLs are spooled to a temp file rather than held in memory, and each attachment is
+// downloaded to a temp file before it goes into the ZIP, so a download that breaks off
+// leaves no truncated entry; it is listed under "failed" in the manifest instead. A
+// failure writing the ZIP itself fails the export. The ZIP is built beside the target
+// and moved into place when complete.
+public class ChatExporter {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    public interface Progress {
+        // fraction is an estimate from message timestamps (0..1); runs on the export thread
+        void update(long messages, long attachments, double fraction);
+    }
+
+    public static class Result {
+        public final Path file;
+        public final long messages;
+        public final long attachments;
+        public final long failedAttachments;
+
+        Result(Path file, long messages, long attachments, long failedAttachments) {
+            this.file = file;
+            this.messages = messages;
+            this.attachments = attachments;
+            this.failedAttachments = failedAttachments;
+        }
+    }
+
+    // Runs on a thread of its own; cancel the future to stop, which leaves no file behind
+    public static CompletableFuture<Result> export(String chatId, Path target, boolean withAttachments, Progress progress) {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        Thread worker = new Thread(() -> {
+            try {
+                future.complete(run(chatId, target, withAttachments, progress, future));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, "chat-export");
+        worker.setDaemon(true);
+        worker.start();
+        return future;
+    }
+
+    private static Result run(String chatId, Path target, boolean withAttachments, Progress progress,
+                              CompletableFuture<?> job) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+        Path spool = withAttachments ? Files.createTempFile("linkapp-export", ".urls") : null;
+        Path part = withAttachments ? Files.createTempFile("linkapp-export", ".part") : null;
+        try {
+            long now = System.currentTimeMillis();
+            long messages;
+            long attachments = 0;
+            // Attachments left out, as {"key", "fileName", "fileUrl", "reason"}
+            List<JSONObject> failed = new ArrayList<>();
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tmp))) {
+                try (Writer urls = spool == null ? null : Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+                    messages = writeMessages(chatId, zip, urls, now, progress, job);
+                }
+
+                if (spool != null) {
+                    try (BufferedReader reader = Files.newBufferedReader(spool, StandardCharsets.UTF_8)) {
+                        for (String line; (line = reader.readLine()) != null; ) {
+                            checkCancelled(job);
+                            JSONObject attachment = new JSONObject(line);
+                            String reason = download(attachment.getString("fileUrl"), part);
+                            if (reason == null) {
+                                zip.putNextEntry(new ZipEntry("attachments/" + attachment.getString("key") + "_"
+                                        + safeName(attachment.getString("fileName"))));
+                                Files.copy(part, zip);
+                                zip.closeEntry();
+                                attachments++;
+                            } else {
+                                failed.add(attachment.put("reason", reason));
+                            }
+                            progress.update(messages, attachments, 1);
+                        }
+                    }
+                }
+
+                zip.putNextEntry(new ZipEntry("manifest.json"));
+                Writer manifest = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+                JsonWriter json = new JsonWriter(manifest);
+                json.beginObject();
+                json.name("chatId").value(chatId);
+                json.name("exportedAt").value(now);
+                json.name("messages").value(messages);
+                json.name("attachments").value(attachments);
+                json.name("failedAttachments").value(failed.size());
+                json.name("failed").beginArray();
+                for (JSONObject attachment : failed) {
+                    json.beginObject();
+                    for (String name : new String[]{"key", "fileName", "fileUrl", "reason"}) {
+                        json.name(name).value(attachment.getString(name));
+                    }
+                    json.endObject();
+                }
+                json.endArray();
+                json.endObject();
+                json.flush();
+                zip.closeEntry();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            return new Result(target, messages, attachments, failed.size());
+        } finally {
+            if (tmp != null) Files.deleteIfExists(tmp);
+            if (spool != null) Files.deleteIfExists(spool);
+            if (part != null) Files.deleteIfExists(part);
+        }
+    }
+
+    // messages.ndjson, a page at a time; the attachment URLs go to urls when it is not null
+    private static long writeMessages(String chatId, ZipOutputStream zip, Writer urls, long now, Progress progress,
+                                      CompletableFuture<?> job) throws IOException {
+        int pageSize = FirebaseAuthService.getIntSetting("EXPORT_PAGE_SIZE", 1000);
+        zip.putNextEntry(new ZipEntry("messages.ndjson"));
+        // Not closed: closing would close the ZIP stream under it
+        Writer lines = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        long messages = 0;
+        String cursor = null;
+        long firstTimestamp = -1;
+        // The newest message bounds the progress estimate
+        TreeMap<String, Message> newest = fetchPage(chatId, "orderBy=\"$key\"&limitToLast=1", null);
+        long lastTimestampOfChat = newest.isEmpty() ? now : newest.firstEntry().getValue().timestamp;
+        while (true) {
+            checkCancelled(job);
+            // startAt is inclusive: ask for one more and let the decoder skip the cursor
+            String query = cursor == null
+                    ? "orderBy=\"$key\"&limitToFirst=" + pageSize
+                    : "orderBy=\"$key\"&startAt=\"" + cursor + "\"&limitToFirst=" + (pageSize + 1);
+            TreeMap<String, Message> page = fetchPage(chatId, query, cursor);
+            if (page.isEmpty()) break;
+            for (Map.Entry<String, Message> entry : page.entrySet()) {
+                Message msg = entry.getValue();
+                writeLine(lines, entry.getKey(), msg);
+                if (urls != null && msg.fileUrl != null && !msg.fileUrl.isEmpty()) {
+                    urls.write(new JSONObject()
+                            .put("key", entry.getKey())
+                            .put("fileName", msg.fileName == null ? "" : msg.fileName)
+                            .put("fileUrl", msg.fileUrl)
+                            .toString());
+                    urls.write('\n');
+                }
+                if (firstTimestamp < 0) firstTimestamp = msg.timestamp;
+            }
+            messages += page.size();
+            cursor = page.lastKey();
+            long lastTimestamp = page.get(cursor).timestamp;
+            double span = Math.max(1, lastTimestampOfChat - firstTimestamp);
+            progress.update(messages, 0, Math.min(1, Math.max(0, (lastTimestamp - firstTimestamp) / span)));
+            if (page.size() < pageSize) break;
+        }
+        lines.flush();
+        zip.closeEntry();
+        return messages;
+    }
+
+    // One page in key order; the server does not promise any order within its JSON
+    private static TreeMap<String, Message> fetchPage(String chatId, String query, String afterKey) throws IOException {
+        String url = FirebaseAuthService.getDatabaseUrl() + "/messages/" + chatId + ".json?" + query;
+        Request request = new Request.Builder().url(url).get().build();
+        for (int attempt = 1; ; attempt++) {
+            try (Response response = FirebaseTransport.execute(request)) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("HTTP " + response.code() + " for GET " + request.url().encodedPath());
+                }
+                return new TreeMap<>(Codecs.readMap(response.body().charStream(), Codecs.MESSAGE, afterKey));
+            } catch (IOException e) {
+                // Flaky links: a page is retried a few times before the export gives up
+                if (attempt == MAX_ATTEMPTS) throw e;
+                System.err.println("Export page failed, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", interrupted);
+                }
+            }
+        }
+    }
+
+    private static void writeLine(Writer lines, String key, Message msg) throws IOException {
+        JsonWriter json = new JsonWriter(lines);
+        json.beginObject();
+        json.name("key").value(key);
+        json.name("message");
+        Codecs.MESSAGE.write(json, msg);
+        json.endObject();
+        json.flush();
+        lines.write('\n');
+    }
+
+    // Downloads url into file. Returns null when it is complete, or why it is not: a missing
+    // or unreadable attachment is listed and skipped, not fatal. Failures writing file
+    // are local (e.g. a full disk) and are thrown, like those of the ZIP.
+    private static String download(String url, Path file) throws IOException {
+        Request request = new Request.Builder().url(url).get().build();
+        Response response;
+        try {
+            response = FirebaseTransport.execute(request);
+        } catch (IOException e) {
+            System.err.println("Export skipped " + url + ": " + e.getMessage());
+            return String.valueOf(e.getMessage());
+        }
+        try (response;
+             InputStream in = response.body().byteStream();
+             OutputStream out = Files.newOutputStream(file)) {
+            if (!response.isSuccessful()) {
+                System.err.println("Export skipped " + url + ": HTTP " + response.code());
+                return "HTTP " + response.code();
+            }
+            byte[] chunk = new byte[64 * 1024];
+            while (true) {
+                int n;
+                try {
+                    n = in.read(chunk);
+                } catch (IOException e) {
+                    // Broken off mid-download: what arrived so far is not used
+                    System.err.println("Export skipped " + url + ": " + e.getMessage());
+                    return String.valueOf(e.getMessage());
+                }
+                if (n < 0) break;
+                out.write(chunk, 0, n);
+            }
+            return null;
+        }
+    }
+
+    private static String safeName(String fileName) {
+        String name = fileName == null || fileName.isEmpty() ? "file" : fileName;
+        return name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+    }
+
+    private static void checkCancelled(CompletableFuture<?> job) {
+        if (job.isCancelled()) throw new CancellationException();
+    }
+}
@@ -0,0 +1,36 @@
+package services;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+// Reads and writes one model type as the JSON stored in the database.
+// key is the database key the value lives under (a message timestamp, a group id, a user uid).
+public interface Codec<T> {
+
+    T read(String key, JsonReader in) throws IOException;
+
+    void write(JsonWriter out, T value) throws IOException;
+
+    default T fromJson(String key, String json) {
+        try {
+            return read(key, new JsonReader(new StringReader(json)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    default String toJson(T value) {
+        StringWriter buffer = new StringWriter(128);
+        try {
+            write(new JsonWriter(buffer), value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+}
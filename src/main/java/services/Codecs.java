@@ -0,0 +1,239 @@
+package services;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import model.GroupInfo;
+import model.Message;
+import model.UserInfo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The one place the model classes are mapped to and from database JSON.
+// Codecs stream through JsonReader/JsonWriter field by field; unknown fields are
+// skipped and null or absent fields get fixed defaults, so decoding the same JSON
+// twice always gives equal values.
+public class Codecs {
+    public static final Codec<Message> MESSAGE = new MessageCodec();
+    public static final Codec<UserInfo> USER_INFO = new UserInfoCodec();
+    public static final Codec<GroupInfo> GROUP_INFO = new GroupInfoCodec();
+
+    private static final Map<Class<?>, Codec<?>> registry = new HashMap<>();
+
+    static {
+        registry.put(Message.class, MESSAGE);
+        registry.put(UserInfo.class, USER_INFO);
+        registry.put(GroupInfo.class, GROUP_INFO);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> of(Class<T> type) {
+        Codec<T> codec = (Codec<T>) registry.get(type);
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec for " + type.getName());
+        }
+        return codec;
+    }
+
+    // Decodes a keyed collection such as /messages/{chatId} or /groups in server order.
+    // Keys at or before afterKey (may be null) are skipped without decoding their values.
+    public static <T> Map<String, T> readMap(Reader body, Codec<T> codec, String afterKey) throws IOException {
+        Map<String, T> values = new LinkedHashMap<>();
+        JsonReader reader = new JsonReader(body);
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            // "null" when the location is empty
+            reader.skipValue();
+            return values;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if ((afterKey != null && key.compareTo(afterKey) <= 0) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            values.put(key, codec.read(key, reader));
+        }
+        reader.endObject();
+        return values;
+    }
+
+    // The inverse of readMap: values as one JSON object under their keys
+    public static <T> void writeMap(Writer body, Map<String, T> values, Codec<T> codec) throws IOException {
+        JsonWriter writer = new JsonWriter(body);
+        writer.beginObject();
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            writer.name(entry.getKey());
+            codec.write(writer, entry.getValue());
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    // Null-tolerant field readers: a JSON null leaves the default in place
+    private static String string(JsonReader in, String fallback) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return fallback;
+        }
+        return in.nextString();
+    }
+
+    private static long number(JsonReader in, long fallback) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return fallback;
+        }
+        return in.nextLong();
+    }
+
+    private static boolean bool(JsonReader in, boolean fallback) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return fallback;
+        }
+        return in.nextBoolean();
+    }
+
+    private static class MessageCodec implements Codec<Message> {
+        @Override
+        public Message read(String key, JsonReader in) throws IOException {
+            String from = "", to = "", text = "";
+            long timestamp = 0;
+            boolean isSystem = false;
+            String type = null, fileName = null, fileUrl = null;
+            long fileSize = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "from": from = string(in, from); break;
+                    case "to": to = string(in, to); break;
+                    case "text": text = string(in, text); break;
+                    case "timestamp": timestamp = number(in, timestamp); break;
+                    case "isSystem": isSystem = bool(in, isSystem); break;
+                    case "type": type = string(in, null); break;
+                    case "fileName": fileName = string(in, null); break;
+                    case "fileUrl": fileUrl = string(in, null); break;
+                    case "fileSize": fileSize = number(in, 0); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Message(from, to, text, timestamp, isSystem, type, fileName, fileUrl, fileSize);
+        }
+
+        @Override
+        public void write(JsonWriter out, Message msg) throws IOException {
+            out.beginObject();
+            out.name("from").value(msg.from);
+            out.name("to").value(msg.to);
+            // File messages carry no text; "" and absent decode the same
+            if (msg.text != null && !msg.text.isEmpty()) out.name("text").value(msg.text);
+            out.name("timestamp").value(msg.timestamp);
+            if (msg.isSystem) out.name("isSystem").value(true);
+            if (msg.type != null) {
+                out.name("type").value(msg.type);
+                out.name("fileName").value(msg.fileName);
+                out.name("fileUrl").value(msg.fileUrl);
+                out.name("fileSize").value(msg.fileSize);
+            }
+            out.endObject();
+        }
+    }
+
+    // Records under /users also hold credentials and profile fields; only the listing fields are read
+    private static class UserInfoCodec implements Codec<UserInfo> {
+        @Override
+        public UserInfo read(String key, JsonReader in) throws IOException {
+            String email = "", displayName = null, status = "offline", avatar = "";
+            // 0 is "unknown"; a clock default would make every fetch look like a change
+            long lastSeen = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "email": email = string(in, email); break;
+                    case "displayName": displayName = string(in, null); break;
+                    case "status": status = string(in, status); break;
+                    case "avatar": avatar = string(in, avatar); break;
+                    case "lastSeen": lastSeen = number(in, lastSeen); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            if (displayName == null) {
+                displayName = email.split("@")[0];
+            }
+            return new UserInfo(email, displayName, status, avatar, lastSeen);
+        }
+
+        @Override
+        public void write(JsonWriter out, UserInfo user) throws IOException {
+            out.beginObject();
+            out.name("email").value(user.email);
+            out.name("displayName").value(user.name);
+            out.name("status").value(user.status);
+            out.name("avatar").value(user.avatar);
+            out.name("lastSeen").value(user.lastSeen);
+            out.endObject();
+        }
+    }
+
+    // The group id is the database key, not a field
+    private static class GroupInfoCodec implements Codec<GroupInfo> {
+        @Override
+        public GroupInfo read(String key, JsonReader in) throws IOException {
+            String name = "", description = "", createdBy = "";
+            List<String> members = new ArrayList<>();
+            long createdAt = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": name = string(in, name); break;
+                    case "description": description = string(in, description); break;
+                    case "createdBy": createdBy = string(in, createdBy); break;
+                    case "createdAt": createdAt = number(in, createdAt); break;
+                    case "members":
+                        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                String member = string(in, null);
+                                if (member != null) members.add(member);
+                            }
+                            in.endArray();
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return new GroupInfo(key, name, description, members, createdBy, createdAt);
+        }
+
+        @Override
+        public void write(JsonWriter out, GroupInfo group) throws IOException {
+            out.beginObject();
+            out.name("name").value(group.name);
+            out.name("description").value(group.description);
+            out.name("createdBy").value(group.createdBy);
+            out.name("createdAt").value(group.createdAt);
+            out.name("members").beginArray();
+            for (String member : group.members) {
+                out.value(member);
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package services;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ETag-aware GET for the polling fallback. Each caller key (a chat id) remembers
+// the ETag of its last response; an unchanged location is answered with null so
+// the caller can skip the parse and the Swing rebuild.
+public class ConditionalGet {
+
+    private static class Entry {
+        final String url;
+        final String etag;
+
+        Entry(String url, String etag) {
+            this.url = url;
+            this.etag = etag;
+        }
+    }
+
+    private static final Map<String, Entry> etags = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> misses = new ConcurrentHashMap<>();
+    // Keys for which the server rejected X-Firebase-ETag; they poll unconditionally
+    private static final Map<String, Boolean> unsupported = new ConcurrentHashMap<>();
+
+    // Completes with the decoded body, or null when it has not changed since the previous
+    // call for this key; the decoder reads the body as it streams in and is skipped when unchanged
+    public static <T> CompletableFuture<T> fetchIfChanged(String key, String url, FirebaseTransport.BodyDecoder<T> decoder) {
+        if (unsupported.containsKey(key)) {
+            misses.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+            return FirebaseTransport.getAsync(url, decoder);
+        }
+
+        Entry previous = etags.get(key);
+        Request.Builder builder = new Request.Builder().url(url).get().header("X-Firebase-ETag", "true");
+        if (previous != null && previous.url.equals(url)) {
+            builder.header("If-None-Match", previous.etag);
+        }
+
+        return FirebaseTransport.executeAsync(builder.build()).thenCompose(response -> {
+            try (Response r = response) {
+                if (r.code() == 304) {
+                    hits.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+                    return CompletableFuture.<T>completedFuture(null);
+                }
+                if (r.code() == 400) {
+                    unsupported.put(key, Boolean.TRUE);
+                    etags.remove(key);
+                    return fetchIfChanged(key, url, decoder);
+                }
+                if (!r.isSuccessful()) {
+                    throw new IOException("HTTP " + r.code() + " for GET " + r.request().url().encodedPath());
+                }
+                String etag = r.header("ETag");
+                if (etag != null && previous != null && previous.url.equals(url) && etag.equals(previous.etag)) {
+                    // Server ignored If-None-Match but the content is the same
+                    hits.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+                    return CompletableFuture.<T>completedFuture(null);
+                }
+                if (etag != null) {
+                    etags.put(key, new Entry(url, etag));
+                }
+                misses.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+                return CompletableFuture.completedFuture(decoder.decode(r.body().charStream()));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    // Drops everything kept for key, e.g. when its chat is no longer polled
+    public static void forget(String key) {
+        etags.remove(key);
+        hits.remove(key);
+        misses.remove(key);
+        unsupported.remove(key);
+    }
+
+    public static long getHits(String key) {
+        AtomicLong count = hits.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    public static long getMisses(String key) {
+        AtomicLong count = misses.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    // e.g. "12 unchanged / 3 changed (80% skipped)"
+    public static String describe(String key) {
+        long hitCount = getHits(key);
+        long missCount = getMisses(key);
+        long total = hitCount + missCount;
+        return hitCount + " unchanged / " + missCount + " changed"
+                + (total > 0 ? " (" + (hitCount * 100 / total) + "% skipped)" : "");
+    }
+}
@@ -0,0 +1,109 @@
+package services;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Whether the database can be reached, judged from every call on the shared HTTP
+// client: a call that fails with an IOException (no route, DNS, timeout) puts the
+// app offline, and any HTTP response at all, even an error status, puts it back
+// online. While offline a small probe request goes out every few seconds, so the
+// reconnect is noticed even when nothing else is being sent.
+public class Connectivity implements Interceptor {
+    public static final Connectivity INTERCEPTOR = new Connectivity();
+
+    public interface Listener {
+        // Runs on the thread that saw the change
+        void onChange(boolean online);
+    }
+
+    private static final AtomicBoolean online = new AtomicBoolean(true);
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "connectivity-probe");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static boolean isOnline() {
+        return online.get();
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            // A cancelled call (closed stream, abandoned future) says nothing about the network
+            if (!chain.call().isCanceled()) {
+                markOffline();
+            }
+            throw e;
+        }
+        markOnline();
+        return response;
+    }
+
+    private static void markOnline() {
+        if (online.compareAndSet(false, true)) {
+            notifyListeners(true);
+        }
+    }
+
+    private static void markOffline() {
+        if (online.compareAndSet(true, false)) {
+            notifyListeners(false);
+            scheduleProbe();
+        }
+    }
+
+    private static void notifyListeners(boolean isOnline) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onChange(isOnline);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Read when first needed: the HTTP client is built while FirebaseAuthService is still loading its settings
+    private static void scheduleProbe() {
+        long seconds = FirebaseAuthService.getIntSetting("OFFLINE_PROBE_SECONDS", 5);
+        prober.schedule(Connectivity::probe, seconds, TimeUnit.SECONDS);
+    }
+
+    // A shallow read of the root is a few bytes; whatever it answers, the interceptor records it
+    private static void probe() {
+        if (online.get()) return;
+        Request request = new Request.Builder()
+                .url(FirebaseAuthService.getDatabaseUrl() + "/.json?shallow=true")
+                .get()
+                .build();
+        FirebaseTransport.executeAsync(request).whenComplete((response, error) -> {
+            if (response != null) {
+                response.close();
+            }
+            if (!online.get()) {
+                scheduleProbe();
+            }
+        });
+    }
+}
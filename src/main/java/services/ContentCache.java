@@ -0,0 +1,271 @@
+package services;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+// Downloaded files (avatars, chat attachments) kept on disk under ~/.linkapp/content,
+// one file per URL named by the URL's SHA-256, with the URL's extension so the
+// desktop knows what opens it. Downloads go to a temp file that is moved into place,
+// so a file under its real name is always complete. The total size is capped
+// (CONTENT_CACHE_MB); the least recently used files go first, and use is recorded
+// in each file's modified time so the order survives restarts. Reads map the file
+// instead of copying it onto the heap. A cached URL is never fetched again, so
+// content that is replaced needs a new URL (avatars carry their upload version).
+public class ContentCache {
+    private static final Path DIR = Paths.get(System.getProperty("user.home"), ".linkapp", "content");
+    private static final String TMP_PREFIX = "tmp.";
+    // A file's use is written back to disk at most this often; in between only the index moves
+    private static final long TOUCH_INTERVAL_MS = 60_000;
+
+    // File name -> size, least recently used first; guarded by the class lock
+    private static final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private static final Map<String, CompletableFuture<Path>> downloads = new HashMap<>();
+    private static final Map<String, Long> touchedAt = new HashMap<>();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "content-cache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static boolean loaded;
+    private static long totalBytes;
+    private static long maxBytes;
+    private static long hits;
+    private static long misses;
+
+    // The local copy of url, downloaded first if needed. Concurrent calls for one URL share a download.
+    public static CompletableFuture<Path> file(String url) {
+        String name = nameOf(url);
+        Path path = DIR.resolve(name);
+        synchronized (ContentCache.class) {
+            load();
+            if (entries.get(name) != null && Files.exists(path)) {
+                hits++;
+                touch(name, path);
+                return CompletableFuture.completedFuture(path);
+            }
+            CompletableFuture<Path> pending = downloads.get(name);
+            if (pending != null) return pending;
+            misses++;
+            CompletableFuture<Path> download = CompletableFuture.supplyAsync(() -> download(url, name), executor);
+            downloads.put(name, download);
+            download.whenComplete((result, error) -> {
+                synchronized (ContentCache.class) {
+                    downloads.remove(name);
+                }
+            });
+            return download;
+        }
+    }
+
+    // The content of url as a read-only mapping of the cached file
+    public static CompletableFuture<ByteBuffer> bytes(String url) {
+        return file(url).thenApply(ContentCache::map);
+    }
+
+    // Whether a download of this size would be kept; larger ones are not worth evicting everything for
+    public static boolean fits(long size) {
+        synchronized (ContentCache.class) {
+            load();
+            return size <= maxEntryBytes();
+        }
+    }
+
+    // Reads a buffer from its position to its limit, e.g. for ImageIO
+    public static InputStream inputStream(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (!view.hasRemaining()) return -1;
+                int n = Math.min(len, view.remaining());
+                view.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+
+    public static synchronized String describe() {
+        return entries.size() + " files, " + (totalBytes >> 10) + " of " + (maxBytes >> 10) + " KB, "
+                + hits + " hits, " + misses + " downloads";
+    }
+
+    private static ByteBuffer map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path download(String url, String name) {
+        Request request = new Request.Builder().url(url).get().build();
+        Path tmp = null;
+        try (Response response = FirebaseTransport.execute(request)) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " for GET " + request.url().encodedPath());
+            }
+            long limit;
+            synchronized (ContentCache.class) {
+                limit = maxEntryBytes();
+            }
+            if (response.body().contentLength() > limit) {
+                throw new IOException("Too large to cache: " + response.body().contentLength() + " bytes");
+            }
+            Files.createDirectories(DIR);
+            tmp = Files.createTempFile(DIR, TMP_PREFIX, null);
+            long size = 0;
+            try (InputStream in = response.body().byteStream();
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                byte[] chunk = new byte[64 * 1024];
+                for (int n; (n = in.read(chunk)) > 0; ) {
+                    size += n;
+                    if (size > limit) {
+                        throw new IOException("Too large to cache: over " + limit + " bytes");
+                    }
+                    out.write(chunk, 0, n);
+                }
+            }
+            Path path = DIR.resolve(name);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            synchronized (ContentCache.class) {
+                Long previous = entries.put(name, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evict(name);
+            }
+            return path;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // Swept up by the next load()
+                }
+            }
+        }
+    }
+
+    // Drops least recently used files until the cache fits, never the one just added
+    private static void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) continue;
+            eldest.remove();
+            touchedAt.remove(entry.getKey());
+            totalBytes -= entry.getValue();
+            try {
+                Files.deleteIfExists(DIR.resolve(entry.getKey()));
+            } catch (IOException e) {
+                // Still mapped somewhere (Windows); it is counted again by the next scan
+                System.err.println("Could not evict " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Builds the index from the directory once, oldest use first, and clears leftover temp files
+    private static void load() {
+        if (loaded) return;
+        loaded = true;
+        maxBytes = FirebaseAuthService.getIntSetting("CONTENT_CACHE_MB", 256) * (1L << 20);
+        if (!Files.isDirectory(DIR)) return;
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(DIR)) {
+            listing.forEach(files::add);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Map<Path, FileTime> used = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path file : files) {
+            try {
+                if (file.getFileName().toString().startsWith(TMP_PREFIX)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                used.put(file, Files.getLastModifiedTime(file));
+                sizes.put(file, Files.size(file));
+            } catch (IOException e) {
+                // Vanished while listing
+            }
+        }
+        List<Path> ordered = new ArrayList<>(used.keySet());
+        ordered.sort((a, b) -> used.get(a).compareTo(used.get(b)));
+        for (Path file : ordered) {
+            entries.put(file.getFileName().toString(), sizes.get(file));
+            totalBytes += sizes.get(file);
+        }
+        evict(null);
+    }
+
+    private static long maxEntryBytes() {
+        return maxBytes / 4;
+    }
+
+    private static void touch(String name, Path path) {
+        long now = System.currentTimeMillis();
+        Long last = touchedAt.get(name);
+        if (last != null && now - last < TOUCH_INTERVAL_MS) return;
+        touchedAt.put(name, now);
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            // Only the order across restarts suffers
+        }
+    }
+
+    private static String nameOf(String url) {
+        return Hashes.sha256(url) + extensionOf(url);
+    }
+
+    // ".png", ".pdf", ... from the URL's last path segment, or nothing
+    private static String extensionOf(String url) {
+        String path = url;
+        int end = path.indexOf('?');
+        if (end >= 0) path = path.substring(0, end);
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash || path.length() - dot > 10) return "";
+        String extension = path.substring(dot).toLowerCase();
+        return extension.matches("\\.[a-z0-9]+") ? extension : "";
+    }
+}
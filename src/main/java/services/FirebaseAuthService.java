@@ -1,18 +1,29 @@
 package services;
 
 import okhttp3.*;
+
+import javax.swing.SwingUtilities;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 public class FirebaseAuthService {
     private static final String CONFIG_FILE = "config.properties";
     private static String API_KEY;
     private static String DATABASE_URL;
-    private static final OkHttpClient client = new OkHttpClient();
+    private static final Properties config = new Properties();
+    private static final OkHttpClient client = FirebaseTransport.client();
+
+    // Completion executor for UI code: continuations passed to it run on the Swing EDT
+    public static final Executor EDT = SwingUtilities::invokeLater;
 
     static {
-        Properties props = new Properties();
+        Properties props = config;
         try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
             props.load(fis);
             API_KEY = props.getProperty("FIREBASE_API_KEY");
@@ -28,7 +39,7 @@ public class FirebaseAuthService {
     public static String register(String email, String password) throws Exception {
         String url = "https://identitytoolkit.googleapis.com/v1/accounts:signUp?key=" + API_KEY;
         String json = "{\"email\":\"" + email + "\",\"password\":\"" + password + "\",\"returnSecureToken\":true}";
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json; charset=utf-8"));
+        RequestBody body = RequestBody.create(json, FirebaseTransport.JSON);
         Request request = new Request.Builder().url(url).post(body).build();
 
         try (Response response = client.newCall(request).execute()) {
@@ -39,7 +50,7 @@ public class FirebaseAuthService {
     public static String login(String email, String password) throws Exception {
         String url = "https://identitytoolkit.googleapis.com/v1/accounts:signInWithPassword?key=" + API_KEY;
         String json = "{\"email\":\"" + email + "\",\"password\":\"" + password + "\",\"returnSecureToken\":true}";
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json; charset=utf-8"));
+        RequestBody body = RequestBody.create(json, FirebaseTransport.JSON);
         Request request = new Request.Builder().url(url).post(body).build();
 
         try (Response response = client.newCall(request).execute()) {
@@ -48,10 +59,11 @@ public class FirebaseAuthService {
     }
 
     public static String getUserByEmail(String email) throws Exception {
-        String url = DATABASE_URL + "/users.json?orderBy=\"email\"&equalTo=\"" + email + "\"";
-        Request request = new Request.Builder().url(url).get().build();
-        try (Response response = client.newCall(request).execute()) {
-            return response.body().string();
+        try {
+            return UserLookup.byEmail(email).get();
+        } catch (ExecutionException e) {
+            Throwable cause = rootCause(e);
+            throw cause instanceof Exception ? (Exception) cause : e;
         }
     }
 
@@ -59,15 +71,98 @@ public class FirebaseAuthService {
         String url = DATABASE_URL + "/users/" + userId + ".json";
         String json = String.format("{\"name\":\"%s\",\"username\":\"%s\",\"email\":\"%s\",\"password\":\"%s\"}",
                 name, username, email, password);
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json; charset=utf-8"));
+        RequestBody body = RequestBody.create(json, FirebaseTransport.JSON);
         Request request = new Request.Builder().url(url).put(body).build();
 
+        UserLookup.invalidate(email);
         try (Response response = client.newCall(request).execute()) {
             return response.body().string();
+        } finally {
+            UserLookup.invalidate(email);
         }
     }
 
+    // Non-blocking API. Futures complete on OkHttp threads; chain with *Async(..., EDT) to touch Swing.
+
+    public static CompletableFuture<String> registerAsync(String email, String password) {
+        String url = "https://identitytoolkit.googleapis.com/v1/accounts:signUp?key=" + API_KEY;
+        String json = "{\"email\":\"" + email + "\",\"password\":\"" + password + "\",\"returnSecureToken\":true}";
+        return FirebaseTransport.bodyAsync(new Request.Builder().url(url).post(RequestBody.create(json, FirebaseTransport.JSON)).build());
+    }
+
+    public static CompletableFuture<String> loginAsync(String email, String password) {
+        String url = "https://identitytoolkit.googleapis.com/v1/accounts:signInWithPassword?key=" + API_KEY;
+        String json = "{\"email\":\"" + email + "\",\"password\":\"" + password + "\",\"returnSecureToken\":true}";
+        return FirebaseTransport.bodyAsync(new Request.Builder().url(url).post(RequestBody.create(json, FirebaseTransport.JSON)).build());
+    }
+
+    // Shared and briefly cached, see UserLookup
+    public static CompletableFuture<String> getUserByEmailAsync(String email) {
+        return UserLookup.byEmail(email);
+    }
+
+    public static CompletableFuture<String> storeUserDataAsync(String userId, String name, String username, String email, String password) {
+        String json = String.format("{\"name\":\"%s\",\"username\":\"%s\",\"email\":\"%s\",\"password\":\"%s\"}",
+                name, username, email, password);
+        UserLookup.invalidate(email);
+        return FirebaseTransport.bodyAsync(new Request.Builder().url(DATABASE_URL + "/users/" + userId + ".json")
+                .put(RequestBody.create(json, FirebaseTransport.JSON)).build())
+                .whenComplete((body, error) -> UserLookup.invalidate(email));
+    }
+
+    // Database paths are relative to DATABASE_URL, e.g. "/groups/" + id + ".json"
+    public static CompletableFuture<String> getAsync(String path) {
+        return FirebaseTransport.getAsync(DATABASE_URL + path);
+    }
+
+    public static <T> CompletableFuture<T> getAsync(String path, FirebaseTransport.BodyDecoder<T> decoder) {
+        return FirebaseTransport.getAsync(DATABASE_URL + path, decoder);
+    }
+
+    public static CompletableFuture<String> putAsync(String path, String json) {
+        return invalidatingUsers(UserLookup.affects(path), () -> FirebaseTransport.putAsync(DATABASE_URL + path, json));
+    }
+
+    public static CompletableFuture<String> patchAsync(String path, String json) {
+        return invalidatingUsers(UserLookup.affects(path), () -> FirebaseTransport.patchAsync(DATABASE_URL + path, json));
+    }
+
+    public static CompletableFuture<String> deleteAsync(String path) {
+        return invalidatingUsers(UserLookup.affects(path), () -> FirebaseTransport.deleteAsync(DATABASE_URL + path));
+    }
+
+    // Drops cached user lookups before a write to /users is sent and again once it has landed
+    static CompletableFuture<String> invalidatingUsers(boolean touchesUsers, Supplier<CompletableFuture<String>> write) {
+        if (!touchesUsers) return write.get();
+        UserLookup.invalidateAll();
+        return write.get().whenComplete((body, error) -> UserLookup.invalidateAll());
+    }
+
+    // Unwraps the CompletionException layers added by future chaining
+    public static Throwable rootCause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
     public static String getDatabaseUrl() {
         return DATABASE_URL;
     }
+
+    // Optional tuning values from config.properties
+    public static String getSetting(String name, String defaultValue) {
+        String value = config.getProperty(name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public static int getIntSetting(String name, int defaultValue) {
+        String value = config.getProperty(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package services;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import okhttp3.*;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+// Long-lived Server-Sent Events subscription to a Realtime Database location.
+// Firebase sends one "put" with the full snapshot, then "put"/"patch" events
+// for every change, and a "keep-alive" roughly every 30 seconds.
+public class FirebaseStream {
+
+    public interface Listener {
+        // Run on the stream's thread with data positioned at the event's value: an object,
+        // a primitive, or null for a deletion. Must read or skip that one value.
+        void onPut(String path, JsonReader data) throws IOException;
+
+        void onPatch(String path, JsonReader data) throws IOException;
+
+        // The stream ended for any reason other than cancel()
+        void onError(Exception e);
+    }
+
+    // Keep-alives arrive every ~30s, so a silent minute means the link is dead
+    private static final OkHttpClient streamClient = FirebaseTransport.client().newBuilder()
+            .readTimeout(90, TimeUnit.SECONDS)
+            .build();
+
+    private final Call call;
+    private final Listener listener;
+    private volatile boolean cancelled;
+
+    private FirebaseStream(String url, Listener listener) {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Accept", "text/event-stream")
+                .get()
+                .build();
+        this.call = streamClient.newCall(request);
+        this.listener = listener;
+    }
+
+    public static FirebaseStream open(String url, Listener listener) {
+        FirebaseStream stream = new FirebaseStream(url, listener);
+        Thread reader = new Thread(stream::run, "firebase-stream");
+        reader.setDaemon(true);
+        reader.start();
+        return stream;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        call.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void run() {
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " opening stream");
+            }
+            BufferedSource source = response.body().source();
+            String event = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while (!cancelled && (line = source.readUtf8Line()) != null) {
+                if (line.isEmpty()) {
+                    if (event != null && dispatch(event, data.toString())) {
+                        return;
+                    }
+                    event = null;
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    event = line.substring(6).trim();
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) data.append('\n');
+                    data.append(line.substring(5).trim());
+                }
+            }
+            if (!cancelled) {
+                listener.onError(new IOException("Stream closed by server"));
+            }
+        } catch (IOException | IllegalStateException e) {
+            if (!cancelled) {
+                listener.onError(e);
+            }
+        }
+    }
+
+    // Returns true when the server has ended the subscription
+    private boolean dispatch(String event, String data) throws IOException {
+        switch (event) {
+            case "put":
+            case "patch": {
+                // {"path": ..., "data": ...}: the value is handed over unparsed, for the listener to decode
+                JsonReader payload = new JsonReader(new StringReader(data));
+                String path = null;
+                String early = null;
+                payload.beginObject();
+                while (payload.hasNext()) {
+                    String name = payload.nextName();
+                    if (name.equals("path")) {
+                        path = payload.nextString();
+                    } else if (name.equals("data") && path != null) {
+                        deliver(event, path, payload);
+                    } else if (name.equals("data")) {
+                        // Firebase sends the path first; kept as text should it ever not
+                        early = JsonParser.parseReader(payload).toString();
+                    } else {
+                        payload.skipValue();
+                    }
+                }
+                if (early != null) {
+                    deliver(event, path == null ? "/" : path, new JsonReader(new StringReader(early)));
+                }
+                return false;
+            }
+            case "keep-alive":
+                return false;
+            case "cancel":
+            case "auth_revoked":
+                if (!cancelled) {
+                    listener.onError(new IOException("Stream " + event + ": " + data));
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void deliver(String event, String path, JsonReader data) throws IOException {
+        if (event.equals("put")) {
+            listener.onPut(path, data);
+        } else {
+            listener.onPatch(path, data);
+        }
+    }
+}
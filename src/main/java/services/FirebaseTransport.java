@@ -0,0 +1,211 @@
+package services;
+
+import okhttp3.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single shared HTTP transport for every Firebase REST call in the app.
+// One connection pool (kept alive between polls), HTTP/2 to the RTDB host so
+// concurrent calls multiplex over one TLS connection, and per-host limits for
+// the async dispatcher.
+public class FirebaseTransport {
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    // Turns a response body into a value while it streams in, instead of buffering it as a String
+    public interface BodyDecoder<T> {
+        T decode(Reader body) throws IOException;
+    }
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+
+    private static final AtomicLong connectionsOpened = new AtomicLong();
+    private static final AtomicLong connectionsReused = new AtomicLong();
+
+    private static final OkHttpClient client = buildClient();
+
+    private static OkHttpClient buildClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .eventListenerFactory(call -> new ConnectionCounter())
+                // Sees the outcome of every call first, to tell when the app is offline
+                .addInterceptor(Connectivity.INTERCEPTOR)
+                // Answers database calls locally when BACKEND=jdbc, otherwise passes them on
+                .addInterceptor(JdbcBackend.INTERCEPTOR)
+                .build();
+    }
+
+    // Counts whether each call got a fresh connection or one from the pool
+    private static class ConnectionCounter extends EventListener {
+        private boolean connected;
+
+        @Override
+        public void connectStart(Call call, java.net.InetSocketAddress address, java.net.Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (connected) {
+                connectionsOpened.incrementAndGet();
+            } else {
+                connectionsReused.incrementAndGet();
+            }
+        }
+    }
+
+    public static OkHttpClient client() {
+        return client;
+    }
+
+    // Caller must close the response
+    public static Response execute(Request request) throws IOException {
+        return client.newCall(request).execute();
+    }
+
+    public static String get(String url) throws IOException {
+        return call(new Request.Builder().url(url).get().build());
+    }
+
+    public static String put(String url, String json) throws IOException {
+        return call(new Request.Builder().url(url).put(RequestBody.create(json, JSON)).build());
+    }
+
+    public static String patch(String url, String json) throws IOException {
+        return call(new Request.Builder().url(url).patch(RequestBody.create(json, JSON)).build());
+    }
+
+    public static String post(String url, String json) throws IOException {
+        return call(new Request.Builder().url(url).post(RequestBody.create(json, JSON)).build());
+    }
+
+    public static String delete(String url) throws IOException {
+        return call(new Request.Builder().url(url).delete().build());
+    }
+
+    private static String call(Request request) throws IOException {
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " for " + request.method() + " " + request.url().encodedPath());
+            }
+            return response.body().string();
+        }
+    }
+
+    // Non-blocking variants on OkHttp's dispatcher; futures complete on its threads.
+    // Cancelling the returned future cancels the HTTP call. Caller must close the response.
+    public static CompletableFuture<Response> executeAsync(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) call.cancel();
+        });
+        return future;
+    }
+
+    public static CompletableFuture<String> getAsync(String url) {
+        return callAsync(new Request.Builder().url(url).get().build());
+    }
+
+    public static <T> CompletableFuture<T> getAsync(String url, BodyDecoder<T> decoder) {
+        Request request = new Request.Builder().url(url).get().build();
+        return readAsync(request, r -> {
+            if (!r.isSuccessful()) {
+                throw new IOException("HTTP " + r.code() + " for GET " + request.url().encodedPath());
+            }
+            return decoder.decode(r.body().charStream());
+        });
+    }
+
+    public static CompletableFuture<String> putAsync(String url, String json) {
+        return callAsync(new Request.Builder().url(url).put(RequestBody.create(json, JSON)).build());
+    }
+
+    public static CompletableFuture<String> patchAsync(String url, String json) {
+        return callAsync(new Request.Builder().url(url).patch(RequestBody.create(json, JSON)).build());
+    }
+
+    public static CompletableFuture<String> postAsync(String url, String json) {
+        return callAsync(new Request.Builder().url(url).post(RequestBody.create(json, JSON)).build());
+    }
+
+    public static CompletableFuture<String> deleteAsync(String url) {
+        return callAsync(new Request.Builder().url(url).delete().build());
+    }
+
+    private static CompletableFuture<String> callAsync(Request request) {
+        return readAsync(request, r -> {
+            if (!r.isSuccessful()) {
+                throw new IOException("HTTP " + r.code() + " for " + request.method() + " " + request.url().encodedPath());
+            }
+            return r.body().string();
+        });
+    }
+
+    // Reads the body whatever the status, for endpoints that report errors as JSON
+    public static CompletableFuture<String> bodyAsync(Request request) {
+        return readAsync(request, r -> r.body().string());
+    }
+
+    private interface ResponseReader<T> {
+        T read(Response response) throws IOException;
+    }
+
+    // Reads the response of an async call and closes it. Cancelling the returned future
+    // cancels the HTTP call too, which a plain thenApply on executeAsync would not.
+    private static <T> CompletableFuture<T> readAsync(Request request, ResponseReader<T> reader) {
+        CompletableFuture<Response> call = executeAsync(request);
+        CompletableFuture<T> result = call.thenApply(response -> {
+            try (Response r = response) {
+                return reader.read(r);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (!result.isCancelled()) return;
+            call.cancel(true);
+            // Answered before the cancel: the reader never ran, so nobody else closes it
+            call.thenAccept(Response::close);
+        });
+        return result;
+    }
+
+    public static long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public static long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+}
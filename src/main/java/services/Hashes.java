@@ -0,0 +1,32 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Lowercase hex digests of UTF-8 text, for file names and ETags
+public class Hashes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static String sha1(String text) {
+        return hex("SHA-1", text);
+    }
+
+    public static String sha256(String text) {
+        return hex("SHA-256", text);
+    }
+
+    private static String hex(String algorithm, String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance(algorithm).digest(text.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package services;
+
+import model.User;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serves the app's Firebase REST calls from a local relational database when
+// config.properties sets BACKEND=jdbc. Installed as an interceptor on the shared
+// HTTP client, so every existing caller (FirebaseAuthService, the outbox, polling)
+// works unchanged: Realtime Database paths are mapped onto JdbcStore and the
+// identitytoolkit sign-up/sign-in calls onto its accounts. Streaming is refused,
+// which sends the chat view to its polling fallback; polls get ETags as usual.
+public class JdbcBackend implements Interceptor {
+    public static final JdbcBackend INTERCEPTOR = new JdbcBackend();
+
+    private static final String AUTH_HOST = "identitytoolkit.googleapis.com";
+
+    private static volatile Boolean enabled;
+    private static JdbcStore store;
+
+    // Read on first use: the HTTP client is built while FirebaseAuthService is still loading its settings
+    static boolean enabled() {
+        if (enabled == null) {
+            enabled = "jdbc".equalsIgnoreCase(FirebaseAuthService.getSetting("BACKEND", "firebase"));
+        }
+        return enabled;
+    }
+
+    private static synchronized JdbcStore store() throws IOException, SQLException {
+        if (store == null) {
+            JdbcPool pool = new JdbcPool(
+                    FirebaseAuthService.getSetting("JDBC_URL", "jdbc:h2:~/.linkapp/linkapp"),
+                    FirebaseAuthService.getSetting("JDBC_USER", "sa"),
+                    FirebaseAuthService.getSetting("JDBC_PASSWORD", ""),
+                    FirebaseAuthService.getIntSetting("JDBC_POOL_SIZE", 4),
+                    FirebaseAuthService.getIntSetting("JDBC_STATEMENT_CACHE", 64));
+            JdbcStore created = new JdbcStore(pool);
+            // The packaged schema.sql unless config.properties points at another file
+            String schema = FirebaseAuthService.getSetting("JDBC_SCHEMA", null);
+            if (schema == null) {
+                created.applySchema();
+            } else {
+                created.applySchema(Paths.get(schema));
+            }
+            store = created;
+        }
+        return store;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!enabled()) return chain.proceed(request);
+        HttpUrl database = HttpUrl.parse(FirebaseAuthService.getDatabaseUrl());
+        String host = request.url().host();
+        try {
+            if (host.equals(AUTH_HOST)) {
+                return auth(request);
+            }
+            if (database != null && host.equals(database.host())) {
+                return database(request);
+            }
+        } catch (SQLException | JSONException e) {
+            e.printStackTrace();
+            return respond(request, 500, error(e.getMessage()));
+        }
+        // Anything else (e.g. file storage) still goes out
+        return chain.proceed(request);
+    }
+
+    // accounts:signUp and accounts:signInWithPassword, answered in Firebase's format
+    private Response auth(Request request) throws IOException, SQLException {
+        JSONObject body = new JSONObject(bodyOf(request));
+        String email = body.optString("email", "");
+        String password = body.optString("password", "");
+        String path = request.url().encodedPath();
+        JdbcStore store = store();
+        if (path.endsWith(":signUp")) {
+            User user = store.write(c -> store.createAccount(c, email, password));
+            if (user == null) return respond(request, 400, error("EMAIL_EXISTS"));
+            return respond(request, 200, account(store, user).toString());
+        }
+        if (path.endsWith(":signInWithPassword")) {
+            User user = store.read(c -> store.findAccount(c, email));
+            if (user == null || !PasswordHash.matches(password, user.getPassword())) {
+                return respond(request, 400, error("INVALID_LOGIN_CREDENTIALS"));
+            }
+            return respond(request, 200, account(store, user).put("registered", true).toString());
+        }
+        return respond(request, 400, error("Unsupported with the JDBC backend: " + path));
+    }
+
+    private static JSONObject account(JdbcStore store, User user) throws SQLException {
+        String uid = store.read(c -> store.uidOf(c, user.getUserId()));
+        return new JSONObject().put("localId", uid).put("email", user.getEmail()).put("idToken", "");
+    }
+
+    private Response database(Request request) throws IOException, SQLException {
+        if ("text/event-stream".equals(request.header("Accept"))) {
+            return respond(request, 501, error("Streaming is not available with the JDBC backend"));
+        }
+        List<String> path = pathOf(request.url());
+        JdbcStore store = store();
+        switch (request.method()) {
+            case "GET": {
+                Object value = store.read(c -> get(store, c, path, request.url()));
+                String body = value == null ? "null" : JSONObject.valueToString(value);
+                if (!"true".equals(request.header("X-Firebase-ETag"))) {
+                    return respond(request, 200, body);
+                }
+                String etag = etag(body);
+                if (etag.equals(request.header("If-None-Match"))) {
+                    return respond(request, 304, "").newBuilder().header("ETag", etag).build();
+                }
+                return respond(request, 200, body).newBuilder().header("ETag", etag).build();
+            }
+            case "PUT": {
+                Object value = parse(bodyOf(request));
+                store.write(c -> {
+                    set(store, c, path, value);
+                    return null;
+                });
+                return respond(request, 200, bodyOf(request));
+            }
+            case "PATCH": {
+                Object value = parse(bodyOf(request));
+                if (!(value instanceof JSONObject)) return respond(request, 400, error("PATCH needs an object"));
+                JSONObject children = (JSONObject) value;
+                // Multi-path update: every child is a write of its own, all in one transaction
+                store.write(c -> {
+                    Map<String, Map<String, JSONObject>> messages = new LinkedHashMap<>();
+                    for (String child : children.keySet()) {
+                        List<String> target = new ArrayList<>(path);
+                        target.addAll(Arrays.asList(child.split("/")));
+                        Object childValue = children.get(child);
+                        if (target.size() == 3 && target.get(0).equals("messages") && childValue instanceof JSONObject) {
+                            // New messages are collected and inserted as one batch per chat
+                            messages.computeIfAbsent(target.get(1), id -> new LinkedHashMap<>())
+                                    .put(target.get(2), (JSONObject) childValue);
+                        } else {
+                            set(store, c, target, childValue);
+                        }
+                    }
+                    for (Map.Entry<String, Map<String, JSONObject>> chat : messages.entrySet()) {
+                        store.putMessages(c, chat.getKey(), chat.getValue());
+                    }
+                    return null;
+                });
+                return respond(request, 200, bodyOf(request));
+            }
+            case "DELETE":
+                store.write(c -> {
+                    set(store, c, path, JSONObject.NULL);
+                    return null;
+                });
+                return respond(request, 200, "null");
+            default:
+                return respond(request, 405, error("Unsupported method " + request.method()));
+        }
+    }
+
+    private Object get(JdbcStore store, JdbcPool.PooledConnection c, List<String> path, HttpUrl url) throws SQLException {
+        if (path.isEmpty()) throw new SQLException("Reading the whole database is not supported");
+        String root = path.get(0);
+        Object entity;
+        int depth;
+        if (root.equals("users")) {
+            if (path.size() == 1) {
+                String orderBy = queryValue(url, "orderBy");
+                String equalTo = queryValue(url, "equalTo");
+                if ("email".equals(orderBy) && equalTo != null) {
+                    return objectOf(store.usersByEmail(c, equalTo));
+                }
+                return objectOf(store.users(c));
+            }
+            entity = store.user(c, path.get(1));
+            depth = 2;
+        } else if (root.equals("groups")) {
+            if (path.size() == 1) return objectOf(store.groups(c));
+            entity = store.group(c, path.get(1));
+            depth = 2;
+        } else if (root.equals("messages")) {
+            if (path.size() == 1) throw new SQLException("Reading every chat at once is not supported");
+            if (path.size() == 2) return objectOf(queryMessages(store, c, path.get(1), url));
+            entity = store.message(c, path.get(1), path.get(2));
+            depth = 3;
+        } else {
+            if (path.size() == 1) {
+                JSONObject children = new JSONObject();
+                for (Map.Entry<String, String> node : store.nodesUnder(c, root).entrySet()) {
+                    children.put(node.getKey(), parse(node.getValue()));
+                }
+                return children.length() == 0 ? null : children;
+            }
+            String value = store.node(c, root + "/" + path.get(1));
+            entity = value == null ? null : parse(value);
+            depth = 2;
+        }
+        // Below an entity: walk into its JSON
+        for (int i = depth; i < path.size() && entity != null; i++) {
+            entity = entity instanceof JSONObject ? ((JSONObject) entity).opt(path.get(i)) : null;
+        }
+        return entity;
+    }
+
+    // The "$key" and "timestamp" orderings with startAt/endAt/limitToFirst/limitToLast
+    private Map<String, JSONObject> queryMessages(JdbcStore store, JdbcPool.PooledConnection c, String chatId, HttpUrl url) throws SQLException {
+        String orderBy = queryValue(url, "orderBy");
+        String startAt = queryValue(url, "startAt");
+        String endAt = queryValue(url, "endAt");
+        String first = url.queryParameter("limitToFirst");
+        String last = url.queryParameter("limitToLast");
+        int limit = last != null ? Integer.parseInt(last) : first != null ? Integer.parseInt(first) : Integer.MAX_VALUE;
+        if ("timestamp".equals(orderBy)) {
+            return store.messagesByTime(c, chatId,
+                    startAt == null ? null : Long.parseLong(startAt),
+                    endAt == null ? null : Long.parseLong(endAt), limit, last != null);
+        }
+        return store.messagesByKey(c, chatId, startAt, endAt, limit, last != null);
+    }
+
+    // Writes value at path; JSONObject.NULL deletes. Paths below an entity (a user, a
+    // group, a message, an other node) rewrite that entity's JSON.
+    private void set(JdbcStore store, JdbcPool.PooledConnection c, List<String> path, Object value) throws SQLException {
+        if (path.isEmpty()) throw new SQLException("Replacing the whole database is not supported");
+        String root = path.get(0);
+        boolean delete = value == null || value == JSONObject.NULL;
+        int depth = root.equals("messages") ? 3 : 2;
+        if (path.size() < depth) {
+            setCollection(store, c, path, value, delete);
+            return;
+        }
+        if (path.size() > depth) {
+            Object entity = get(store, c, path.subList(0, depth), null);
+            JSONObject updated = entity instanceof JSONObject ? (JSONObject) entity : new JSONObject();
+            JSONObject parent = updated;
+            for (int i = depth; i < path.size() - 1; i++) {
+                JSONObject next = parent.optJSONObject(path.get(i));
+                if (next == null) {
+                    next = new JSONObject();
+                    parent.put(path.get(i), next);
+                }
+                parent = next;
+            }
+            if (delete) {
+                parent.remove(path.get(path.size() - 1));
+            } else {
+                parent.put(path.get(path.size() - 1), value);
+            }
+            set(store, c, path.subList(0, depth), updated);
+            return;
+        }
+        if (!delete && !(value instanceof JSONObject)) {
+            throw new SQLException("Expected an object at " + String.join("/", path));
+        }
+        JSONObject json = delete ? null : (JSONObject) value;
+        switch (root) {
+            case "users":
+                if (delete) store.deleteUser(c, path.get(1)); else store.putUser(c, path.get(1), json);
+                break;
+            case "groups":
+                if (delete) store.deleteGroup(c, path.get(1)); else store.putGroup(c, path.get(1), json);
+                break;
+            case "messages":
+                if (delete) {
+                    store.deleteMessage(c, path.get(1), path.get(2));
+                } else {
+                    Map<String, JSONObject> one = new LinkedHashMap<>();
+                    one.put(path.get(2), json);
+                    store.putMessages(c, path.get(1), one);
+                }
+                break;
+            default:
+                String nodePath = root + "/" + path.get(1);
+                if (delete) store.deleteNode(c, nodePath); else store.putNode(c, nodePath, json.toString());
+        }
+    }
+
+    // Writes at a collection level: the children of value are written one by one
+    private void setCollection(JdbcStore store, JdbcPool.PooledConnection c, List<String> path, Object value, boolean delete) throws SQLException {
+        if (path.get(0).equals("messages") && path.size() == 2) {
+            store.deleteChat(c, path.get(1));
+            if (delete) return;
+            if (!(value instanceof JSONObject)) throw new SQLException("Expected an object at " + String.join("/", path));
+            JSONObject children = (JSONObject) value;
+            Map<String, JSONObject> messages = new LinkedHashMap<>();
+            for (String key : children.keySet()) {
+                messages.put(key, children.getJSONObject(key));
+            }
+            store.putMessages(c, path.get(1), messages);
+            return;
+        }
+        throw new SQLException("Replacing all of " + String.join("/", path) + " is not supported");
+    }
+
+    private static List<String> pathOf(HttpUrl url) {
+        List<String> path = new ArrayList<>();
+        for (String segment : url.pathSegments()) {
+            if (!segment.isEmpty()) path.add(segment);
+        }
+        if (!path.isEmpty()) {
+            String last = path.remove(path.size() - 1);
+            if (last.endsWith(".json")) last = last.substring(0, last.length() - 5);
+            if (!last.isEmpty()) path.add(last);
+        }
+        return path;
+    }
+
+    // Query values are JSON: "\"$key\"" or a bare number
+    private static String queryValue(HttpUrl url, String name) {
+        String raw = url == null ? null : url.queryParameter(name);
+        if (raw == null) return null;
+        Object value = new JSONTokener(raw).nextValue();
+        return String.valueOf(value);
+    }
+
+    private static JSONObject objectOf(Map<String, JSONObject> children) {
+        JSONObject object = new JSONObject();
+        children.forEach(object::put);
+        return object;
+    }
+
+    private static Object parse(String json) {
+        return new JSONTokener(json).nextValue();
+    }
+
+    private static String bodyOf(Request request) throws IOException {
+        if (request.body() == null) return "";
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return buffer.readString(StandardCharsets.UTF_8);
+    }
+
+    private static String error(String message) {
+        return new JSONObject().put("error", new JSONObject().put("code", 400).put("message", String.valueOf(message))).toString();
+    }
+
+    private static String etag(String body) {
+        return Hashes.sha1(body);
+    }
+
+    private static Response respond(Request request, int code, String body) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message(code == 200 ? "OK" : "Error")
+                .body(ResponseBody.create(body, FirebaseTransport.JSON))
+                .build();
+    }
+}
@@ -0,0 +1,139 @@
+package services;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Small fixed-size JDBC connection pool. Connections are opened up front and
+// handed out one caller at a time; each keeps an LRU cache of its prepared
+// statements, so a hot query is parsed once per connection instead of per call.
+public class JdbcPool {
+    private static final long BORROW_TIMEOUT_SECONDS = 10;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int statementCacheSize;
+    private final BlockingQueue<PooledConnection> idle;
+
+    public JdbcPool(String url, String user, String password, int size, int statementCacheSize) throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.statementCacheSize = statementCacheSize;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            idle.add(open());
+        }
+    }
+
+    // Close the returned connection to give it back to the pool
+    public PooledConnection borrow() throws SQLException {
+        PooledConnection connection;
+        try {
+            connection = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        if (connection == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        if (!connection.connection.isValid(2)) {
+            connection.discard();
+            try {
+                connection = open();
+            } catch (SQLException e) {
+                // The closed one goes back so the pool keeps its size; the next borrow retries
+                idle.add(connection);
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private PooledConnection open() throws SQLException {
+        return new PooledConnection(DriverManager.getConnection(url, user, password));
+    }
+
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= statementCacheSize) return false;
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        // A cached statement for sql with its parameters cleared; do not close it
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        // Returns the connection, undoing any transaction the caller left open
+        @Override
+        public void close() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idle.add(this);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                discard();
+                try {
+                    idle.add(open());
+                } catch (SQLException reopen) {
+                    reopen.printStackTrace();
+                    // Closed, so the next borrow of it reopens it
+                    idle.add(this);
+                }
+            }
+        }
+
+        private void discard() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Already broken
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Nothing to do; the connection still owns it
+        }
+    }
+}
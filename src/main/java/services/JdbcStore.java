@@ -0,0 +1,450 @@
+package services;
+
+import model.User;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Users, groups, memberships and messages in the tables of schema.sql (a classpath resource).
+// Records go in and out as the same JSON objects the Firebase database holds,
+// so JdbcBackend can serve the app's REST calls from here unchanged.
+public class JdbcStore {
+    private static final int BATCH_SIZE = 500;
+
+    private static final String USER_COLUMNS =
+            "uid, email, username, name, display_name, password, status, avatar, last_seen, extra";
+    private static final String GROUP_COLUMNS = "group_id, name, description, created_by, created_at";
+    private static final String MESSAGE_COLUMNS =
+            "msg_key, ts, sender, recipient, body, is_system, file_type, file_name, file_url, file_size";
+
+    public interface SqlWork<T> {
+        T run(JdbcPool.PooledConnection c) throws SQLException;
+    }
+
+    private final JdbcPool pool;
+
+    public JdbcStore(JdbcPool pool) {
+        this.pool = pool;
+    }
+
+    // The schema.sql packaged with the app
+    public void applySchema() throws IOException, SQLException {
+        InputStream in = JdbcStore.class.getResourceAsStream("/schema.sql");
+        if (in == null) throw new IOException("schema.sql is missing from the classpath");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            applySchema(reader);
+        }
+    }
+
+    public void applySchema(Path schema) throws IOException, SQLException {
+        try (BufferedReader reader = Files.newBufferedReader(schema, StandardCharsets.UTF_8)) {
+            applySchema(reader);
+        }
+    }
+
+    // Runs each statement of the schema; they all use IF NOT EXISTS
+    private void applySchema(BufferedReader schema) throws IOException, SQLException {
+        StringBuilder sql = new StringBuilder();
+        for (String line; (line = schema.readLine()) != null; ) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--")) continue;
+            sql.append(line).append('\n');
+        }
+        try (JdbcPool.PooledConnection c = pool.borrow();
+             Statement statement = c.connection().createStatement()) {
+            for (String part : sql.toString().split(";")) {
+                if (!part.trim().isEmpty()) {
+                    statement.execute(part);
+                }
+            }
+        }
+    }
+
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        try (JdbcPool.PooledConnection c = pool.borrow()) {
+            return work.run(c);
+        }
+    }
+
+    // Runs work in one transaction, rolled back if it throws
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        try (JdbcPool.PooledConnection c = pool.borrow()) {
+            c.connection().setAutoCommit(false);
+            T result = work.run(c);
+            c.connection().commit();
+            return result;
+        }
+    }
+
+    // Accounts
+
+    // Creates an account with a new uid, or returns null if the email is taken.
+    // Only a PasswordHash of the password is stored.
+    public User createAccount(JdbcPool.PooledConnection c, String email, String password) throws SQLException {
+        if (findAccount(c, email) != null) return null;
+        PreparedStatement insert = c.prepare("INSERT INTO users (uid, email, password) VALUES (?, ?, ?)");
+        insert.setString(1, UUID.randomUUID().toString().replace("-", ""));
+        insert.setString(2, email);
+        insert.setString(3, PasswordHash.hash(password));
+        insert.executeUpdate();
+        return findAccount(c, email);
+    }
+
+    // The account's password is its stored PasswordHash
+    public User findAccount(JdbcPool.PooledConnection c, String email) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT user_id, username, email, password FROM users WHERE email = ?");
+        select.setString(1, email);
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) return null;
+            User user = new User(rs.getInt(1), rs.getString(2), rs.getString(3));
+            user.setPassword(rs.getString(4));
+            return user;
+        }
+    }
+
+    public String uidOf(JdbcPool.PooledConnection c, int userId) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT uid FROM users WHERE user_id = ?");
+        select.setInt(1, userId);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    // User profiles
+
+    public Map<String, JSONObject> users(JdbcPool.PooledConnection c) throws SQLException {
+        return readUsers(c.prepare("SELECT " + USER_COLUMNS + " FROM users ORDER BY uid"));
+    }
+
+    public Map<String, JSONObject> usersByEmail(JdbcPool.PooledConnection c, String email) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT " + USER_COLUMNS + " FROM users WHERE email = ?");
+        select.setString(1, email);
+        return readUsers(select);
+    }
+
+    public JSONObject user(JdbcPool.PooledConnection c, String uid) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT " + USER_COLUMNS + " FROM users WHERE uid = ?");
+        select.setString(1, uid);
+        return readUsers(select).get(uid);
+    }
+
+    // Replaces the profile; the numeric user_id of an existing account is kept. A
+    // "password" in the profile becomes the account's password, stored hashed; without
+    // one the current password stays.
+    public void putUser(JdbcPool.PooledConnection c, String uid, JSONObject user) throws SQLException {
+        String password = user.has("password") ? PasswordHash.hash(user.getString("password")) : passwordOf(c, uid);
+        JSONObject extra = new JSONObject(user.toString());
+        for (String field : new String[]{"email", "username", "name", "displayName", "password", "status", "avatar", "lastSeen"}) {
+            extra.remove(field);
+        }
+        PreparedStatement merge = c.prepare("MERGE INTO users (" + USER_COLUMNS + ") KEY (uid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        merge.setString(1, uid);
+        merge.setString(2, user.optString("email", null));
+        merge.setString(3, user.optString("username", null));
+        merge.setString(4, user.optString("name", null));
+        merge.setString(5, user.optString("displayName", null));
+        merge.setString(6, password);
+        merge.setString(7, user.optString("status", null));
+        merge.setString(8, user.optString("avatar", null));
+        merge.setLong(9, user.optLong("lastSeen", 0));
+        merge.setString(10, extra.length() == 0 ? null : extra.toString());
+        merge.executeUpdate();
+    }
+
+    private String passwordOf(JdbcPool.PooledConnection c, String uid) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT password FROM users WHERE uid = ?");
+        select.setString(1, uid);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    public void deleteUser(JdbcPool.PooledConnection c, String uid) throws SQLException {
+        PreparedStatement delete = c.prepare("DELETE FROM users WHERE uid = ?");
+        delete.setString(1, uid);
+        delete.executeUpdate();
+    }
+
+    private Map<String, JSONObject> readUsers(PreparedStatement select) throws SQLException {
+        Map<String, JSONObject> users = new LinkedHashMap<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                String extra = rs.getString(10);
+                JSONObject user = extra == null ? new JSONObject() : new JSONObject(extra);
+                putIfSet(user, "email", rs.getString(2));
+                putIfSet(user, "username", rs.getString(3));
+                putIfSet(user, "name", rs.getString(4));
+                putIfSet(user, "displayName", rs.getString(5));
+                // The password hash (column 6) is never handed out
+                putIfSet(user, "status", rs.getString(7));
+                putIfSet(user, "avatar", rs.getString(8));
+                user.put("lastSeen", rs.getLong(9));
+                users.put(rs.getString(1), user);
+            }
+        }
+        return users;
+    }
+
+    // Groups and memberships
+
+    public Map<String, JSONObject> groups(JdbcPool.PooledConnection c) throws SQLException {
+        Map<String, JSONObject> groups = readGroups(c.prepare("SELECT " + GROUP_COLUMNS + " FROM chat_groups ORDER BY group_id"));
+        try (ResultSet rs = c.prepare("SELECT group_id, email FROM group_members ORDER BY group_id, email").executeQuery()) {
+            while (rs.next()) {
+                JSONObject group = groups.get(rs.getString(1));
+                if (group != null) group.getJSONArray("members").put(rs.getString(2));
+            }
+        }
+        return groups;
+    }
+
+    public JSONObject group(JdbcPool.PooledConnection c, String groupId) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT " + GROUP_COLUMNS + " FROM chat_groups WHERE group_id = ?");
+        select.setString(1, groupId);
+        JSONObject group = readGroups(select).get(groupId);
+        if (group == null) return null;
+        for (String email : membersOf(c, groupId)) {
+            group.getJSONArray("members").put(email);
+        }
+        return group;
+    }
+
+    public void putGroup(JdbcPool.PooledConnection c, String groupId, JSONObject group) throws SQLException {
+        PreparedStatement merge = c.prepare("MERGE INTO chat_groups (" + GROUP_COLUMNS + ") KEY (group_id) VALUES (?, ?, ?, ?, ?)");
+        merge.setString(1, groupId);
+        merge.setString(2, group.optString("name", null));
+        merge.setString(3, group.optString("description", null));
+        merge.setString(4, group.optString("createdBy", null));
+        merge.setLong(5, group.optLong("createdAt", 0));
+        merge.executeUpdate();
+        List<String> members = new ArrayList<>();
+        JSONArray array = group.optJSONArray("members");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) members.add(array.getString(i));
+        }
+        setMembers(c, groupId, members);
+    }
+
+    public void deleteGroup(JdbcPool.PooledConnection c, String groupId) throws SQLException {
+        PreparedStatement delete = c.prepare("DELETE FROM chat_groups WHERE group_id = ?");
+        delete.setString(1, groupId);
+        delete.executeUpdate();
+    }
+
+    public List<String> membersOf(JdbcPool.PooledConnection c, String groupId) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT email FROM group_members WHERE group_id = ? ORDER BY email");
+        select.setString(1, groupId);
+        List<String> members = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) members.add(rs.getString(1));
+        }
+        return members;
+    }
+
+    // Brings the group to exactly these members, touching only the rows that differ
+    public void setMembers(JdbcPool.PooledConnection c, String groupId, Collection<String> members) throws SQLException {
+        Set<String> current = new HashSet<>(membersOf(c, groupId));
+        Set<String> target = new HashSet<>(members);
+        PreparedStatement delete = c.prepare("DELETE FROM group_members WHERE group_id = ? AND email = ?");
+        for (String email : current) {
+            if (target.contains(email)) continue;
+            delete.setString(1, groupId);
+            delete.setString(2, email);
+            delete.addBatch();
+        }
+        delete.executeBatch();
+        PreparedStatement insert = c.prepare("INSERT INTO group_members (group_id, email) VALUES (?, ?)");
+        for (String email : target) {
+            if (current.contains(email)) continue;
+            insert.setString(1, groupId);
+            insert.setString(2, email);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    private Map<String, JSONObject> readGroups(PreparedStatement select) throws SQLException {
+        Map<String, JSONObject> groups = new LinkedHashMap<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                JSONObject group = new JSONObject();
+                putIfSet(group, "name", rs.getString(2));
+                putIfSet(group, "description", rs.getString(3));
+                putIfSet(group, "createdBy", rs.getString(4));
+                group.put("createdAt", rs.getLong(5));
+                group.put("members", new JSONArray());
+                groups.put(rs.getString(1), group);
+            }
+        }
+        return groups;
+    }
+
+    // Messages
+
+    // Inserts or replaces messages of one chat, sent to the database in batches
+    public void putMessages(JdbcPool.PooledConnection c, String chatId, Map<String, JSONObject> messages) throws SQLException {
+        PreparedStatement merge = c.prepare("MERGE INTO messages (chat_id, " + MESSAGE_COLUMNS + ") KEY (chat_id, msg_key)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        int pending = 0;
+        for (Map.Entry<String, JSONObject> entry : messages.entrySet()) {
+            JSONObject msg = entry.getValue();
+            merge.setString(1, chatId);
+            merge.setString(2, entry.getKey());
+            merge.setLong(3, msg.optLong("timestamp", 0));
+            merge.setString(4, msg.optString("from", null));
+            merge.setString(5, msg.optString("to", null));
+            merge.setString(6, msg.optString("text", null));
+            merge.setBoolean(7, msg.optBoolean("isSystem", false));
+            merge.setString(8, msg.optString("type", null));
+            merge.setString(9, msg.optString("fileName", null));
+            merge.setString(10, msg.optString("fileUrl", null));
+            merge.setLong(11, msg.optLong("fileSize", 0));
+            merge.addBatch();
+            if (++pending == BATCH_SIZE) {
+                merge.executeBatch();
+                pending = 0;
+            }
+        }
+        if (pending > 0) merge.executeBatch();
+    }
+
+    public void deleteMessage(JdbcPool.PooledConnection c, String chatId, String key) throws SQLException {
+        PreparedStatement delete = c.prepare("DELETE FROM messages WHERE chat_id = ? AND msg_key = ?");
+        delete.setString(1, chatId);
+        delete.setString(2, key);
+        delete.executeUpdate();
+    }
+
+    public void deleteChat(JdbcPool.PooledConnection c, String chatId) throws SQLException {
+        PreparedStatement delete = c.prepare("DELETE FROM messages WHERE chat_id = ?");
+        delete.setString(1, chatId);
+        delete.executeUpdate();
+    }
+
+    public JSONObject message(JdbcPool.PooledConnection c, String chatId, String key) throws SQLException {
+        return messagesByKey(c, chatId, key, key, 1, false).get(key);
+    }
+
+    // Messages with keys in [startAt, endAt] (either bound may be null), key order. With
+    // fromEnd the limit keeps the newest ones, like Firebase's limitToLast.
+    public Map<String, JSONObject> messagesByKey(JdbcPool.PooledConnection c, String chatId, String startAt, String endAt,
+                                                 int limit, boolean fromEnd) throws SQLException {
+        return rangeQuery(c, "msg_key", chatId, startAt, endAt, Types.VARCHAR, limit, fromEnd);
+    }
+
+    // Messages with timestamps in [from, to] (either bound may be null), served by the messages_by_time indexes
+    public Map<String, JSONObject> messagesByTime(JdbcPool.PooledConnection c, String chatId, Long from, Long to,
+                                                  int limit, boolean fromEnd) throws SQLException {
+        return rangeQuery(c, "ts", chatId, from, to, Types.BIGINT, limit, fromEnd);
+    }
+
+    private Map<String, JSONObject> rangeQuery(JdbcPool.PooledConnection c, String column, String chatId,
+                                               Object start, Object end, int type, int limit, boolean fromEnd) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT " + MESSAGE_COLUMNS + " FROM messages WHERE chat_id = ?");
+        if (start != null) sql.append(" AND ").append(column).append(" >= ?");
+        if (end != null) sql.append(" AND ").append(column).append(" <= ?");
+        // Spelled to match an index in schema.sql exactly, so H2 stops after limit rows
+        String dir = fromEnd ? " DESC" : "";
+        sql.append(" ORDER BY chat_id, ").append(column).append(dir);
+        if (!column.equals("msg_key")) sql.append(", msg_key").append(dir);
+        sql.append(" LIMIT ?");
+        PreparedStatement select = c.prepare(sql.toString());
+        int parameter = 1;
+        select.setString(parameter++, chatId);
+        if (start != null) select.setObject(parameter++, start, type);
+        if (end != null) select.setObject(parameter++, end, type);
+        select.setInt(parameter, limit);
+
+        List<String> keys = new ArrayList<>();
+        List<JSONObject> rows = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                JSONObject msg = new JSONObject();
+                putIfSet(msg, "from", rs.getString(3));
+                putIfSet(msg, "to", rs.getString(4));
+                putIfSet(msg, "text", rs.getString(5));
+                msg.put("timestamp", rs.getLong(2));
+                if (rs.getBoolean(6)) msg.put("isSystem", true);
+                String fileType = rs.getString(7);
+                if (fileType != null) {
+                    msg.put("type", fileType);
+                    putIfSet(msg, "fileName", rs.getString(8));
+                    putIfSet(msg, "fileUrl", rs.getString(9));
+                    msg.put("fileSize", rs.getLong(10));
+                }
+                keys.add(rs.getString(1));
+                rows.add(msg);
+            }
+        }
+        if (fromEnd) {
+            Collections.reverse(keys);
+            Collections.reverse(rows);
+        }
+        Map<String, JSONObject> messages = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            messages.put(keys.get(i), rows.get(i));
+        }
+        return messages;
+    }
+
+    // Other paths
+
+    public String node(JdbcPool.PooledConnection c, String path) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT node_value FROM nodes WHERE node_path = ?");
+        select.setString(1, path);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    // Entries directly below prefix, by their last path segment
+    public Map<String, String> nodesUnder(JdbcPool.PooledConnection c, String prefix) throws SQLException {
+        PreparedStatement select = c.prepare("SELECT node_path, node_value FROM nodes WHERE node_path LIKE ? ESCAPE '\\' ORDER BY node_path");
+        select.setString(1, prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "/%");
+        Map<String, String> nodes = new LinkedHashMap<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                nodes.put(rs.getString(1).substring(prefix.length() + 1), rs.getString(2));
+            }
+        }
+        return nodes;
+    }
+
+    public void putNode(JdbcPool.PooledConnection c, String path, String json) throws SQLException {
+        PreparedStatement merge = c.prepare("MERGE INTO nodes (node_path, node_value) KEY (node_path) VALUES (?, ?)");
+        merge.setString(1, path);
+        merge.setString(2, json);
+        merge.executeUpdate();
+    }
+
+    public void deleteNode(JdbcPool.PooledConnection c, String path) throws SQLException {
+        PreparedStatement delete = c.prepare("DELETE FROM nodes WHERE node_path = ?");
+        delete.setString(1, path);
+        delete.executeUpdate();
+    }
+
+    private static void putIfSet(JSONObject json, String field, String value) {
+        if (value != null) json.put(field, value);
+    }
+}
@@ -0,0 +1,56 @@
+package services;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Database keys that never collide and still sort by time, in the spirit of
+// Firebase push IDs: "1700000000000-00a3k9x2mq7c"
+//   13-digit epoch millis | "-" | 4-char per-client counter | 8-char client id
+// The millis prefix keeps new keys in order with the plain-timestamp keys
+// written by older versions ('-' sorts before any digit). The counter makes
+// keys from one client strictly increasing; the client id separates clients
+// that write in the same millisecond.
+public class KeyGenerator {
+    private static final int COUNTER_BITS = 20;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    private static final String DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    // (millis << COUNTER_BITS) | counter of the last key handed out
+    private static final AtomicLong last = new AtomicLong();
+    private static final String CLIENT_ID = clientId();
+
+    public static String next() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        // Same millisecond (or a clock step backwards): bump the counter. A full
+        // counter rolls into the next millisecond, which keeps keys increasing.
+        long state = last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+        long millis = state >>> COUNTER_BITS;
+        long counter = state & COUNTER_MASK;
+
+        char[] key = new char[13 + 1 + 4 + CLIENT_ID.length()];
+        fill(key, 0, 13, millis, 10);
+        key[13] = '-';
+        fill(key, 14, 4, counter, 36);
+        CLIENT_ID.getChars(0, CLIENT_ID.length(), key, 18);
+        return new String(key);
+    }
+
+    // The millisecond part of a generated key, or the whole key for legacy timestamp keys
+    public static long timestampOf(String key) {
+        int end = key.indexOf('-');
+        return Long.parseLong(end < 0 ? key : key.substring(0, end));
+    }
+
+    private static void fill(char[] target, int offset, int width, long value, int radix) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            target[i] = DIGITS.charAt((int) (value % radix));
+            value /= radix;
+        }
+    }
+
+    private static String clientId() {
+        char[] id = new char[8];
+        fill(id, 0, 8, new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+        return new String(id);
+    }
+}
@@ -0,0 +1,82 @@
+package services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hashed group membership in both directions: group id -> member emails and
+// email -> group ids. Updates only touch the members that actually changed, so
+// checks and "groups of" lookups stay O(1) however large a group grows.
+public class MembershipIndex {
+    private final Map<String, Set<String>> membersByGroup = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> groupsByEmail = new ConcurrentHashMap<>();
+
+    public boolean isMember(String groupId, String email) {
+        Set<String> members = membersByGroup.get(groupId);
+        return members != null && members.contains(email);
+    }
+
+    public Set<String> groupsOf(String email) {
+        Set<String> groups = groupsByEmail.get(email);
+        return groups == null ? Collections.emptySet() : Collections.unmodifiableSet(groups);
+    }
+
+    public Set<String> membersOf(String groupId) {
+        Set<String> members = membersByGroup.get(groupId);
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    public int memberCount(String groupId) {
+        Set<String> members = membersByGroup.get(groupId);
+        return members == null ? 0 : members.size();
+    }
+
+    // Brings one group to the given member list, adding and removing only the difference
+    public synchronized void setMembers(String groupId, Collection<String> members) {
+        Set<String> current = membersByGroup.computeIfAbsent(groupId, id -> ConcurrentHashMap.newKeySet());
+        Set<String> target = new HashSet<>(members);
+        for (String email : current) {
+            if (!target.contains(email)) {
+                current.remove(email);
+                unlink(email, groupId);
+            }
+        }
+        for (String email : target) {
+            if (current.add(email)) {
+                groupsByEmail.computeIfAbsent(email, e -> ConcurrentHashMap.newKeySet()).add(groupId);
+            }
+        }
+    }
+
+    public synchronized void removeGroup(String groupId) {
+        Set<String> members = membersByGroup.remove(groupId);
+        if (members == null) return;
+        for (String email : members) {
+            unlink(email, groupId);
+        }
+    }
+
+    // Syncs with a full listing of groups: changed groups are patched, vanished ones dropped
+    public synchronized void syncAll(Map<String, ? extends Collection<String>> membersByGroupId) {
+        for (String groupId : new HashSet<>(membersByGroup.keySet())) {
+            if (!membersByGroupId.containsKey(groupId)) {
+                removeGroup(groupId);
+            }
+        }
+        for (Map.Entry<String, ? extends Collection<String>> entry : membersByGroupId.entrySet()) {
+            setMembers(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void unlink(String email, String groupId) {
+        Set<String> groups = groupsByEmail.get(email);
+        if (groups == null) return;
+        groups.remove(groupId);
+        if (groups.isEmpty()) {
+            groupsByEmail.remove(email);
+        }
+    }
+}
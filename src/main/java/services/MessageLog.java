@@ -0,0 +1,476 @@
+package services;
+
+import model.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// Local copy of the messages seen from the server, so an opened chat can be shown
+// before the network answers. Each chat has a directory under ~/.linkapp/log/ of
+// numbered, append-only segment files made of CRC-checked records:
+//   int length | int crc32 | long timestamp | int keyLength | key | message json
+// where an empty json marks a deleted message. Beside each segment a memory-mapped
+// .idx file holds (timestamp, offset) per record, so the newest messages are found
+// by walking the indexes back from their ends and only their records are read. A
+// full segment is sealed and a new one started; once a chat has too many sealed
+// segments or outgrows its budget they are merged into one holding the latest
+// version of each message, dropping the oldest messages if it is still too big.
+// All file work runs on one thread.
+public class MessageLog {
+    private static final Path DIR = Paths.get(System.getProperty("user.home"), ".linkapp", "log");
+
+    private static final long SEGMENT_BYTES = FirebaseAuthService.getIntSetting("MESSAGE_LOG_SEGMENT_KB", 1024) * 1024L;
+    private static final long MAX_CHAT_BYTES = FirebaseAuthService.getIntSetting("MESSAGE_LOG_MAX_KB", 16 * 1024) * 1024L;
+    private static final int SEGMENT_ENTRIES = 65536;
+    private static final int MAX_SEALED_SEGMENTS = 4;
+    private static final int MAX_OPEN_CHATS = 4;
+
+    private static final int INDEX_MAGIC = 0x4C4B4958;
+    private static final int INDEX_HEADER = 8;   // int magic | int count
+    private static final int INDEX_ENTRY = 16;   // long timestamp | long offset
+    private static final int RECORD_HEADER = 8;  // int length | int crc32
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-log");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Most recently used chats keep their files open; only touched on the log thread
+    private static final Map<String, ChatLog> open = new LinkedHashMap<String, ChatLog>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChatLog> eldest) {
+            if (size() <= MAX_OPEN_CHATS) return false;
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    // Records what the server holds for these keys; removed keys are recorded as deletions
+    public static void append(String chatId, Map<String, Message> updates, Collection<String> removed) {
+        if (updates.isEmpty() && removed.isEmpty()) return;
+        Map<String, Message> copy = new TreeMap<>(updates);
+        List<String> deletions = new ArrayList<>(removed);
+        executor.execute(() -> {
+            try {
+                ChatLog log = chat(chatId);
+                for (Map.Entry<String, Message> entry : copy.entrySet()) {
+                    log.append(entry.getKey(), entry.getValue().timestamp, Codecs.MESSAGE.toJson(entry.getValue()));
+                }
+                for (String key : deletions) {
+                    log.append(key, timestampOf(key), "");
+                }
+            } catch (IOException | RuntimeException e) {
+                // The log is only a cache of the server
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // The newest stored messages of a chat, at most limit of them
+    public static CompletableFuture<Map<String, Message>> readLatest(String chatId, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return chat(chatId).latest(limit);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    // Deletions carry no message, so their timestamp comes from the key like the message's did
+    private static long timestampOf(String key) {
+        try {
+            return KeyGenerator.timestampOf(key);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static ChatLog chat(String chatId) throws IOException {
+        ChatLog log = open.get(chatId);
+        if (log == null) {
+            log = new ChatLog(DIR.resolve(directoryName(chatId)));
+            open.put(chatId, log);
+        }
+        return log;
+    }
+
+    // Chat ids are emails with dots replaced; anything unusual or long is hashed
+    private static String directoryName(String chatId) {
+        if (chatId.length() <= 100 && chatId.matches("[A-Za-z0-9_@+-]+")) return chatId;
+        return Hashes.sha1(chatId);
+    }
+
+    private static class ChatLog {
+        private final Path dir;
+        // Oldest first; the last one is the segment being appended to
+        private final List<Segment> segments = new ArrayList<>();
+
+        ChatLog(Path dir) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            List<Long> numbers = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.contains(".tmp.")) {
+                        // Left behind by a compaction that did not finish
+                        Files.deleteIfExists(file);
+                    } else if (name.endsWith(".seg")) {
+                        numbers.add(Long.parseLong(name.substring(0, name.length() - 4)));
+                    }
+                }
+            }
+            numbers.sort(null);
+            for (long number : numbers) {
+                segments.add(Segment.open(dir, segmentName(number)));
+            }
+            if (segments.isEmpty()) {
+                segments.add(Segment.open(dir, segmentName(1)));
+            }
+        }
+
+        void append(String key, long timestamp, String json) throws IOException {
+            Segment active = segments.get(segments.size() - 1);
+            if (active.size >= SEGMENT_BYTES || active.count >= SEGMENT_ENTRIES) {
+                active = roll();
+            }
+            active.append(encode(key, timestamp, json), timestamp);
+        }
+
+        private Segment roll() throws IOException {
+            long next = number(segments.get(segments.size() - 1)) + 1;
+            Segment active = Segment.open(dir, segmentName(next));
+            segments.add(active);
+            if (segments.size() - 1 > MAX_SEALED_SEGMENTS || totalBytes() > MAX_CHAT_BYTES) {
+                compact();
+            }
+            return active;
+        }
+
+        private long totalBytes() {
+            long total = 0;
+            for (Segment segment : segments) total += segment.size;
+            return total;
+        }
+
+        // The newest limit messages. Segments are walked newest first and each index back
+        // from its end, so the versions of a message are met newest-written first and the
+        // first one counts. Live updates are written in time order, so in an index that is
+        // in order the walk stops at the first entry too old to make the cut, and a segment
+        // with nothing newer than the oldest message picked so far is skipped whole.
+        Map<String, Message> latest(int limit) throws IOException {
+            // Oldest at the head, to be dropped when a newer message turns up
+            PriorityQueue<Picked> picked = new PriorityQueue<>(Comparator.comparingLong((Picked p) -> p.timestamp));
+            Set<String> seen = new HashSet<>();
+            for (int s = segments.size() - 1; s >= 0; s--) {
+                Segment segment = segments.get(s);
+                if (picked.size() >= limit && segment.maxTimestamp <= picked.peek().timestamp) continue;
+                for (int i = segment.count - 1; i >= 0; i--) {
+                    long timestamp = segment.timestamp(i);
+                    if (picked.size() >= limit && timestamp <= picked.peek().timestamp) {
+                        if (segment.ordered) break;
+                        continue;
+                    }
+                    Record record = segment.read(i);
+                    if (record == null || !seen.add(record.key) || record.json.isEmpty()) continue;
+                    picked.add(new Picked(timestamp, record));
+                    if (picked.size() > limit) picked.poll();
+                }
+            }
+            Map<String, Message> result = new TreeMap<>();
+            for (Picked p : picked) {
+                result.put(p.record.key, Codecs.MESSAGE.fromJson(p.record.key, p.record.json));
+            }
+            return result;
+        }
+
+        // Merges the sealed segments into the newest of them, keeping one version per message
+        private void compact() throws IOException {
+            List<Segment> sealed = new ArrayList<>(segments.subList(0, segments.size() - 1));
+            if (sealed.isEmpty()) return;
+            Segment active = segments.get(segments.size() - 1);
+
+            TreeMap<String, ByteBuffer> latest = new TreeMap<>();
+            long bytes = 0;
+            for (int s = sealed.size() - 1; s >= 0; s--) {
+                Segment segment = sealed.get(s);
+                for (int i = segment.count - 1; i >= 0; i--) {
+                    ByteBuffer raw = segment.readRaw(i);
+                    if (raw == null) continue;
+                    String key = decodeKey(raw);
+                    if (latest.containsKey(key)) continue;
+                    latest.put(key, raw);
+                    bytes += raw.remaining();
+                }
+            }
+            // Keys follow time, so the oldest messages go first when over budget
+            long budget = MAX_CHAT_BYTES * 3 / 4 - active.size;
+            while (bytes > budget && !latest.isEmpty()) {
+                bytes -= latest.pollFirstEntry().getValue().remaining();
+            }
+
+            String target = segmentName(number(sealed.get(sealed.size() - 1)));
+            Segment merged = Segment.open(dir, target + ".tmp");
+            for (ByteBuffer raw : latest.values()) {
+                merged.append(raw, raw.getLong(raw.position() + RECORD_HEADER));
+            }
+            merged.close();
+            for (Segment segment : sealed) {
+                segment.close();
+            }
+            Files.move(merged.indexPath, dir.resolve(target + ".idx"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(merged.dataPath, dir.resolve(target + ".seg"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int s = 0; s < sealed.size() - 1; s++) {
+                sealed.get(s).delete();
+            }
+            segments.clear();
+            segments.add(Segment.open(dir, target));
+            segments.add(active);
+        }
+
+        void close() {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private static class Record {
+        final String key;
+        final String json;
+
+        Record(String key, String json) {
+            this.key = key;
+            this.json = json;
+        }
+    }
+
+    private static class Picked {
+        final long timestamp;
+        final Record record;
+
+        Picked(long timestamp, Record record) {
+            this.timestamp = timestamp;
+            this.record = record;
+        }
+    }
+
+    private static class Segment {
+        final Path dataPath;
+        final Path indexPath;
+        private final FileChannel data;
+        private final FileChannel indexFile;
+        private MappedByteBuffer index;
+        int count;
+        long size;
+        // Newest timestamp indexed, and whether timestamps never go down in write order
+        long maxTimestamp = Long.MIN_VALUE;
+        boolean ordered = true;
+
+        private Segment(Path dataPath, Path indexPath) throws IOException {
+            this.dataPath = dataPath;
+            this.indexPath = indexPath;
+            data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexFile = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = data.size();
+        }
+
+        // Opens or creates name.seg/name.idx, rebuilding the index if it does not match the data
+        static Segment open(Path dir, String name) throws IOException {
+            Segment segment = new Segment(dir.resolve(name + ".seg"), dir.resolve(name + ".idx"));
+            if (segment.loadIndex()) {
+                segment.scanTimestamps();
+            } else {
+                segment.rebuildIndex();
+            }
+            return segment;
+        }
+
+        private boolean loadIndex() throws IOException {
+            long length = indexFile.size();
+            if (length < INDEX_HEADER) return false;
+            index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            int capacity = (int) ((length - INDEX_HEADER) / INDEX_ENTRY);
+            count = index.getInt(4);
+            if (index.getInt(0) != INDEX_MAGIC || count < 0 || count > capacity) return false;
+            if (count == 0) return size == 0;
+            // The last indexed record has to end exactly where the data does
+            long last = offset(count - 1);
+            ByteBuffer raw = readRaw(count - 1);
+            return raw != null && last + raw.remaining() == size;
+        }
+
+        // Once per open; appends keep both up to date from then on
+        private void scanTimestamps() {
+            for (int i = 0; i < count; i++) {
+                long timestamp = timestamp(i);
+                if (timestamp < maxTimestamp) ordered = false;
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+        }
+
+        // Re-indexes the data, cutting it at the first torn or corrupt record
+        private void rebuildIndex() throws IOException {
+            count = 0;
+            ensureCapacity(SEGMENT_ENTRIES);
+            index.putInt(0, INDEX_MAGIC);
+            long position = 0;
+            while (true) {
+                ByteBuffer raw = readRawAt(position);
+                if (raw == null) break;
+                addEntry(raw.getLong(RECORD_HEADER), position);
+                position += raw.remaining();
+            }
+            if (position < size) {
+                System.err.println("Truncating message log " + dataPath + " at " + position + " of " + size);
+                data.truncate(position);
+                size = position;
+            }
+        }
+
+        void append(ByteBuffer record, long timestamp) throws IOException {
+            long position = size;
+            ByteBuffer buffer = record.duplicate();
+            while (buffer.hasRemaining()) {
+                size += data.write(buffer, size);
+            }
+            addEntry(timestamp, position);
+        }
+
+        private void addEntry(long timestamp, long position) throws IOException {
+            ensureCapacity(count + 1);
+            if (timestamp < maxTimestamp) ordered = false;
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            int at = INDEX_HEADER + count * INDEX_ENTRY;
+            index.putLong(at, timestamp);
+            index.putLong(at + 8, position);
+            // The count goes last, so a crash never indexes a half-written entry
+            index.putInt(4, ++count);
+        }
+
+        private void ensureCapacity(int entries) throws IOException {
+            long needed = INDEX_HEADER + (long) entries * INDEX_ENTRY;
+            if (index != null && index.capacity() >= needed) return;
+            long length = INDEX_HEADER + Math.max(entries, count * 2L) * INDEX_ENTRY;
+            length = Math.max(length, INDEX_HEADER + (long) SEGMENT_ENTRIES * INDEX_ENTRY);
+            index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+
+        long timestamp(int i) {
+            return index.getLong(INDEX_HEADER + i * INDEX_ENTRY);
+        }
+
+        long offset(int i) {
+            return index.getLong(INDEX_HEADER + i * INDEX_ENTRY + 8);
+        }
+
+        Record read(int i) throws IOException {
+            ByteBuffer raw = readRaw(i);
+            if (raw == null) return null;
+            String key = decodeKey(raw);
+            int valueStart = RECORD_HEADER + 12 + raw.getInt(RECORD_HEADER + 8);
+            String json = new String(raw.array(), valueStart, raw.remaining() - valueStart, StandardCharsets.UTF_8);
+            return new Record(key, json);
+        }
+
+        ByteBuffer readRaw(int i) throws IOException {
+            return readRawAt(offset(i));
+        }
+
+        // Whole record at position, header included, or null if it is cut short or fails its CRC
+        private ByteBuffer readRawAt(long position) throws IOException {
+            if (position + RECORD_HEADER > size) return null;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            readFully(header, position);
+            int length = header.getInt(0);
+            if (length < 12 || position + RECORD_HEADER + length > size) return null;
+            ByteBuffer raw = ByteBuffer.allocate(RECORD_HEADER + length);
+            raw.put(header.array());
+            readFully(raw, position + RECORD_HEADER);
+            raw.flip();
+            CRC32 crc = new CRC32();
+            crc.update(raw.array(), RECORD_HEADER, length);
+            int keyLength = raw.getInt(RECORD_HEADER + 8);
+            if ((int) crc.getValue() != raw.getInt(4) || keyLength < 0 || keyLength > length - 12) return null;
+            return raw;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = data.read(buffer, position);
+                if (read < 0) throw new IOException("Unexpected end of " + dataPath);
+                position += read;
+            }
+        }
+
+        void close() {
+            try {
+                data.close();
+                indexFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+        }
+    }
+
+    private static ByteBuffer encode(String key, long timestamp, String json) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        int length = 12 + keyBytes.length + jsonBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+        record.putInt(length).putInt(0).putLong(timestamp).putInt(keyBytes.length).put(keyBytes).put(jsonBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static String decodeKey(ByteBuffer raw) {
+        int keyLength = raw.getInt(RECORD_HEADER + 8);
+        return new String(raw.array(), RECORD_HEADER + 12, keyLength, StandardCharsets.UTF_8);
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%020d", number);
+    }
+
+    private static long number(Segment segment) {
+        String name = segment.dataPath.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+}
@@ -0,0 +1,248 @@
+package services;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Durable queue for outgoing database writes. enqueue() appends the write to
+// ~/.linkapp/outbox.ndjson before returning, and the outbox thread flushes
+// everything pending as one root-level multi-path PATCH. Failed flushes are
+// retried with exponential backoff; entries left on disk are resent on startup.
+// A batch the server rejects outright is halved until the write at fault is
+// found, and only that one is dropped. When Connectivity reports the network
+// back, the wait is cut short and everything that piled up offline is sent at once.
+public class MessageOutbox {
+    private static final Path DIR = Paths.get(System.getProperty("user.home"), ".linkapp");
+    private static final Path FILE = DIR.resolve("outbox.ndjson");
+
+    private static final int MAX_BATCH = 200;
+    private static final long FLUSH_DELAY_MS = 50;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    // Database path (no leading slash) -> JSON value, in the order written to the file.
+    // Guarded by journal, which also orders appends against rewrites of the file.
+    private static final Map<String, String> pending = new LinkedHashMap<>();
+    private static final Object journal = new Object();
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "message-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static boolean started;
+    // The next flush, if one is scheduled; only touched on the outbox thread
+    private static ScheduledFuture<?> scheduledFlush;
+    private static long backoffMs = MIN_BACKOFF_MS;
+    // The first this many pending writes hold one the server rejects; 0 when none is known
+    private static int suspectCount;
+    private static volatile int pendingCount;
+
+    // Loads writes left over from a previous run and starts sending them
+    public static synchronized void start() {
+        if (started) return;
+        started = true;
+        executor.execute(MessageOutbox::restore);
+        Connectivity.addListener(online -> {
+            if (online) executor.execute(MessageOutbox::flushNow);
+        });
+    }
+
+    // Queues a write of serialized json at path, e.g. "messages/" + chatId + "/" + key.
+    // Returns once the write is on disk, so it survives the app exiting straight after.
+    public static void enqueue(String path, String json) {
+        String key = path.startsWith("/") ? path.substring(1) : path;
+        start();
+        synchronized (journal) {
+            try {
+                append(key, json);
+            } catch (IOException e) {
+                // Still sent from memory, just not across a restart
+                e.printStackTrace();
+            }
+            pending.put(key, json);
+            pendingCount = pending.size();
+        }
+        executor.execute(() -> scheduleFlush(FLUSH_DELAY_MS));
+    }
+
+    public static int getPendingCount() {
+        return pendingCount;
+    }
+
+    // Writes still waiting under prefix (e.g. "messages/" + chatId + "/"), path -> JSON value
+    public static CompletableFuture<Map<String, String>> pendingUnder(String prefix) {
+        start();
+        // On the outbox thread, so writes left from the last run are restored first
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, String> matching = new LinkedHashMap<>();
+            synchronized (journal) {
+                for (Map.Entry<String, String> entry : pending.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        matching.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return matching;
+        }, executor);
+    }
+
+    private static void restore() {
+        synchronized (journal) {
+            if (!Files.exists(FILE)) return;
+            // Writes enqueued since startup are in the file too; re-putting them keeps their values
+            Map<String, String> restored = new LinkedHashMap<>();
+            try {
+                for (String line : Files.readAllLines(FILE, StandardCharsets.UTF_8)) {
+                    if (line.trim().isEmpty()) continue;
+                    try {
+                        JSONObject entry = new JSONObject(line);
+                        restored.put(entry.getString("path"), entry.getJSONObject("value").toString());
+                    } catch (JSONException e) {
+                        // Torn last line from a crash mid-append
+                        System.err.println("Skipping unreadable outbox entry: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            restored.putAll(pending);
+            pending.clear();
+            pending.putAll(restored);
+            pendingCount = pending.size();
+            if (pending.isEmpty()) return;
+        }
+        scheduleFlush(0);
+    }
+
+    private static void scheduleFlush(long delayMs) {
+        if (scheduledFlush != null) return;
+        scheduledFlush = executor.schedule(MessageOutbox::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Skips whatever backoff is left, replacing the flush scheduled from it
+    private static void flushNow() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        backoffMs = MIN_BACKOFF_MS;
+        flush();
+    }
+
+    private static void flush() {
+        scheduledFlush = null;
+        // Path -> the value sent, so a write replaced while in flight stays pending
+        Map<String, String> batch = new LinkedHashMap<>();
+        synchronized (journal) {
+            int limit = suspectCount > 0 ? Math.max(1, suspectCount / 2) : MAX_BATCH;
+            for (Map.Entry<String, String> entry : pending.entrySet()) {
+                if (batch.size() == limit) break;
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        WriteBatch writes = new WriteBatch();
+        batch.forEach(writes::setJson);
+        Request request = writes.toRequest();
+        try (Response response = FirebaseTransport.execute(request)) {
+            int code = response.code();
+            if (response.isSuccessful()) {
+                // The rejected write, if any, is among those not sent yet
+                suspectCount = Math.max(0, suspectCount - batch.size());
+                complete(batch);
+            } else if (code >= 400 && code < 500 && code != 408 && code != 429) {
+                // Rejected by the rules or malformed: retrying will not help. A multi-path
+                // PATCH applies nothing when one path fails, so halve until it is found.
+                String reason = response.body().string();
+                if (batch.size() == 1) {
+                    System.err.println("Outbox dropped write to " + batch.keySet().iterator().next()
+                            + ": HTTP " + code + " " + reason);
+                    suspectCount = 0;
+                    complete(batch);
+                } else {
+                    suspectCount = batch.size();
+                    scheduleFlush(0);
+                }
+            } else {
+                retry(new IOException("HTTP " + code));
+            }
+        } catch (IOException e) {
+            retry(e);
+        }
+    }
+
+    private static void complete(Map<String, String> batch) {
+        boolean more;
+        synchronized (journal) {
+            batch.forEach(pending::remove);
+            pendingCount = pending.size();
+            try {
+                rewrite();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            more = !pending.isEmpty();
+        }
+        backoffMs = MIN_BACKOFF_MS;
+        if (more) {
+            scheduleFlush(0);
+        }
+    }
+
+    private static void retry(IOException e) {
+        System.err.println("Outbox flush failed, retrying in " + backoffMs + " ms: " + e.getMessage());
+        scheduleFlush(backoffMs);
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    // Callers hold journal
+    private static void append(String key, String json) throws IOException {
+        Files.createDirectories(DIR);
+        try (BufferedWriter writer = Files.newBufferedWriter(FILE, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(line(key, json));
+            writer.newLine();
+        }
+    }
+
+    // Replaces the file with what is still pending; written beside it and moved into place.
+    // Callers hold journal.
+    private static void rewrite() throws IOException {
+        if (pending.isEmpty()) {
+            Files.deleteIfExists(FILE);
+            return;
+        }
+        Files.createDirectories(DIR);
+        Path tmp = DIR.resolve("outbox.ndjson.tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : pending.entrySet()) {
+                writer.write(line(entry.getKey(), entry.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String line(String key, String json) {
+        return "{\"path\":" + JSONObject.quote(key) + ",\"value\":" + json + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package services;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+
+// The last chat list each account saw (other users, its groups), one JSON file per
+// collection under ~/.linkapp/offline/<account hash>, so the list can be shown
+// without the network. Message history has its own store, MessageLog.
+public class OfflineStore {
+    private static final Path DIR = Paths.get(System.getProperty("user.home"), ".linkapp", "offline");
+
+    // Replaces the saved collection; written beside it and moved into place
+    public static synchronized <T> void save(String account, String name, Map<String, T> values, Codec<T> codec) {
+        try {
+            Path dir = DIR.resolve(hash(account));
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(name + ".json.tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                Codecs.writeMap(writer, values, codec);
+            }
+            Files.move(tmp, dir.resolve(name + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Empty when nothing was saved yet or the file cannot be read
+    public static synchronized <T> Map<String, T> load(String account, String name, Codec<T> codec) {
+        Path file = DIR.resolve(hash(account)).resolve(name + ".json");
+        if (!Files.exists(file)) return Collections.emptyMap();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return Codecs.readMap(reader, codec, null);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable offline " + name + ": " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    // Emails make awkward directory names
+    private static String hash(String account) {
+        return Hashes.sha1(account);
+    }
+}
@@ -0,0 +1,154 @@
+package services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.UnaryOperator;
+
+// A keyed cache that is read without locks from any thread. Every change builds a
+// new immutable map and publishes it with one atomic swap, so a reader always sees
+// a whole version. Listeners get the difference between the version they saw last
+// and the current one, worked out when the listener runs rather than when the
+// change was made, so racing changes can never reach a listener out of order.
+// Values must be treated as immutable: replace them, never mutate them in place.
+public class SnapshotCache<K, V> {
+
+    public static class Diff<K, V> {
+        public final Map<K, V> added;
+        public final Map<K, V> updated;
+        public final Map<K, V> removed;
+
+        Diff(Map<K, V> added, Map<K, V> updated, Map<K, V> removed) {
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    public interface Listener<K, V> {
+        // Runs on the executor the listener was added with
+        void onChange(Diff<K, V> diff);
+    }
+
+    // One listener and the version it has been told about
+    private class Subscription {
+        final Listener<K, V> listener;
+        final Executor executor;
+        Map<K, V> seen;
+
+        Subscription(Listener<K, V> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+            this.seen = current.get();
+        }
+
+        // Several changes in quick succession may arrive as one diff, and later runs find nothing new
+        synchronized void catchUp() {
+            Map<K, V> latest = current.get();
+            if (latest == seen) return;
+            Diff<K, V> diff = diff(seen, latest);
+            seen = latest;
+            if (!diff.isEmpty()) {
+                listener.onChange(diff);
+            }
+        }
+    }
+
+    private final AtomicReference<Map<K, V>> current = new AtomicReference<>(Collections.emptyMap());
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // Decides whether a replaced value counts as an update
+    private final BiPredicate<V, V> sameValue;
+
+    public SnapshotCache(BiPredicate<V, V> sameValue) {
+        this.sameValue = sameValue;
+    }
+
+    public Map<K, V> snapshot() {
+        return current.get();
+    }
+
+    public V get(K key) {
+        return current.get().get(key);
+    }
+
+    public boolean containsKey(K key) {
+        return current.get().containsKey(key);
+    }
+
+    // Runs listener on the thread that made each change
+    public void addListener(Listener<K, V> listener) {
+        addListener(listener, Runnable::run);
+    }
+
+    // Runs listener on executor, e.g. the EDT; it sees changes from the moment it is added
+    public void addListener(Listener<K, V> listener, Executor executor) {
+        subscriptions.add(new Subscription(listener, executor));
+    }
+
+    public void replaceAll(Map<K, V> values) {
+        update(old -> new HashMap<>(values));
+    }
+
+    public void put(K key, V value) {
+        update(old -> {
+            Map<K, V> next = new HashMap<>(old);
+            next.put(key, value);
+            return next;
+        });
+    }
+
+    public void remove(K key) {
+        update(old -> {
+            if (!old.containsKey(key)) return old;
+            Map<K, V> next = new HashMap<>(old);
+            next.remove(key);
+            return next;
+        });
+    }
+
+    // change gets the current version and returns the next one; it may run more than once under contention
+    public void update(UnaryOperator<Map<K, V>> change) {
+        Map<K, V> previous;
+        Map<K, V> next;
+        do {
+            previous = current.get();
+            next = change.apply(previous);
+            if (next == previous) return;
+            next = Collections.unmodifiableMap(next);
+        } while (!current.compareAndSet(previous, next));
+
+        for (Subscription subscription : subscriptions) {
+            subscription.executor.execute(subscription::catchUp);
+        }
+    }
+
+    private Diff<K, V> diff(Map<K, V> previous, Map<K, V> next) {
+        Map<K, V> added = new LinkedHashMap<>();
+        Map<K, V> updated = new LinkedHashMap<>();
+        Map<K, V> removed = new LinkedHashMap<>();
+        for (Map.Entry<K, V> entry : next.entrySet()) {
+            V old = previous.get(entry.getKey());
+            if (old == null) {
+                added.put(entry.getKey(), entry.getValue());
+            } else if (old != entry.getValue() && !sameValue.test(old, entry.getValue())) {
+                updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<K, V> entry : previous.entrySet()) {
+            if (!next.containsKey(entry.getKey())) {
+                removed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new Diff<>(added, updated, removed);
+    }
+}
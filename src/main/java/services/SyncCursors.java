@@ -0,0 +1,45 @@
+package services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.prefs.Preferences;
+
+// Newest message key seen per chat, kept in memory and persisted in the user
+// preferences so sync can resume from it. Keys are compared as strings, which
+// matches Firebase's "$key" ordering for the 13-digit timestamp keys we write.
+public class SyncCursors {
+    private static final Preferences prefs = Preferences.userNodeForPackage(SyncCursors.class).node("sync_cursors");
+    private static final Map<String, String> cursors = new ConcurrentHashMap<>();
+
+    public static String get(String chatId) {
+        return cursors.computeIfAbsent(chatId, id -> prefs.get(prefKey(id), null));
+    }
+
+    // Moves the cursor forward only; older keys are ignored
+    public static void advance(String chatId, String key) {
+        if (key == null) return;
+        String previous = get(chatId);
+        if (previous != null && previous.compareTo(key) >= 0) return;
+        cursors.merge(chatId, key, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+        prefs.put(prefKey(chatId), cursors.get(chatId));
+    }
+
+    public static void reset(String chatId) {
+        cursors.remove(chatId);
+        prefs.remove(prefKey(chatId));
+    }
+
+    public static String newest(Iterable<String> keys) {
+        String newest = null;
+        for (String key : keys) {
+            if (newest == null || key.compareTo(newest) > 0) newest = key;
+        }
+        return newest;
+    }
+
+    // Preference keys are limited to 80 characters; long chat ids are hashed
+    private static String prefKey(String chatId) {
+        if (chatId.length() <= Preferences.MAX_KEY_LENGTH) return chatId;
+        return Hashes.sha1(chatId);
+    }
+}
@@ -0,0 +1,122 @@
+package services;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Read layer for the users.json?orderBy="email" query. Concurrent lookups of the
+// same email share one request, and successful answers are reused for a short
+// TTL. Any write under /users drops the cache so a lookup never sees data older
+// than our own last write.
+public class UserLookup {
+
+    private static class Entry {
+        final String body;
+        final long expiresAt;
+
+        Entry(String body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            FirebaseAuthService.getIntSetting("USER_CACHE_TTL_SECONDS", 30));
+
+    private static final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    // Bumped by every invalidation; a response only gets cached if no write happened while it was in flight
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong coalesced = new AtomicLong();
+
+    // Completes with the raw response body, as FirebaseAuthService.getUserByEmail returns it
+    public static CompletableFuture<String> byEmail(String email) {
+        Entry entry = cache.get(email);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(entry.body);
+        }
+
+        CompletableFuture<String> existing = inFlight.get(email);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        CompletableFuture<String> created = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(email, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        misses.incrementAndGet();
+        fetch(email, created);
+        return created;
+    }
+
+    private static void fetch(String email, CompletableFuture<String> result) {
+        long startGeneration = generation.get();
+        String url = FirebaseAuthService.getDatabaseUrl() + "/users.json?orderBy=\"email\"&equalTo=\"" + email + "\"";
+        FirebaseTransport.executeAsync(new Request.Builder().url(url).get().build()).whenComplete((response, error) -> {
+            inFlight.remove(email, result);
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try (Response r = response) {
+                String body = r.body().string();
+                // Error payloads are passed through to the caller but never cached
+                if (r.isSuccessful() && generation.get() == startGeneration) {
+                    cache.put(email, new Entry(body, System.nanoTime() + TTL_NANOS));
+                }
+                result.complete(body);
+            } catch (IOException e) {
+                result.completeExceptionally(new CompletionException(e));
+            }
+        });
+    }
+
+    public static void invalidate(String email) {
+        generation.incrementAndGet();
+        cache.remove(email);
+        inFlight.remove(email);
+    }
+
+    // Writes addressed by push key cannot be mapped back to an email, so they drop everything
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+        inFlight.clear();
+    }
+
+    // True for database paths under /users, with or without the leading slash
+    public static boolean affects(String path) {
+        String p = path.startsWith("/") ? path.substring(1) : path;
+        return p.equals("users") || p.startsWith("users/") || p.startsWith("users.json");
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public static String describe() {
+        return "User lookups: " + hits.get() + " cached / " + coalesced.get() + " shared / " + misses.get() + " fetched";
+    }
+}
@@ -0,0 +1,111 @@
+package services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+// LRU cache bounded by the total weight (e.g. bytes) of its values instead of their
+// count. A value is weighed once, when it is put; a value that changes must be taken
+// out and put back. Evicted values are handed to onEvict so they can free what they
+// hold. Not thread-safe: ChatInterface only uses it on the EDT.
+public class WeightedLruCache<K, V> {
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    // Access order: iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long budget;
+    private final ToLongFunction<V> weigher;
+    private final BiConsumer<K, V> onEvict;
+    private long totalWeight;
+    private long evictions;
+
+    public WeightedLruCache(long budget, ToLongFunction<V> weigher, BiConsumer<K, V> onEvict) {
+        this.budget = budget;
+        this.weigher = weigher;
+        this.onEvict = onEvict;
+    }
+
+    // Adds or replaces value as the most recently used entry, then evicts from the
+    // cold end until the cache fits its budget again. A value heavier than the whole
+    // budget is evicted straight away, leaving the other entries alone.
+    public void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > budget) {
+            V previous = take(key);
+            if (previous != null && previous != value) {
+                onEvict.accept(key, previous);
+            }
+            evictions++;
+            onEvict.accept(key, value);
+            return;
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, weight));
+        totalWeight += weight;
+        if (previous != null) {
+            totalWeight -= previous.weight;
+            if (previous.value != value) {
+                onEvict.accept(key, previous.value);
+            }
+        }
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (totalWeight > budget && eldest.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = eldest.next();
+            eldest.remove();
+            totalWeight -= entry.getValue().weight;
+            evictions++;
+            onEvict.accept(entry.getKey(), entry.getValue().value);
+        }
+    }
+
+    // Removes and returns the value for key, or null. The caller owns it from then on.
+    public V take(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) return null;
+        totalWeight -= entry.weight;
+        return entry.value;
+    }
+
+    public boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    // Drops key, handing its value to onEvict
+    public void invalidate(K key) {
+        V value = take(key);
+        if (value != null) {
+            onEvict.accept(key, value);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            onEvict.accept(entry.getKey(), entry.getValue().value);
+        }
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long totalWeight() {
+        return totalWeight;
+    }
+
+    public String describe() {
+        return entries.size() + " entries, " + (totalWeight >> 10) + " of " + (budget >> 10)
+                + " KB, " + evictions + " evicted";
+    }
+}
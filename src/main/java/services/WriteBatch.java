@@ -0,0 +1,71 @@
+package services;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Collects several writes and sends them as one multi-location PATCH against the
+// database root. Firebase applies all of them or none, in a single round trip.
+public class WriteBatch {
+    // Database path (no leading slash) -> JSON text of the new value
+    private final Map<String, String> writes = new LinkedHashMap<>();
+
+    // value may be a JSONObject, JSONArray, String, Number or Boolean
+    public WriteBatch set(String path, Object value) {
+        return setJson(path, JSONObject.valueToString(value));
+    }
+
+    // value is already serialized JSON
+    public WriteBatch setJson(String path, String json) {
+        writes.put(normalize(path), json);
+        return this;
+    }
+
+    public WriteBatch delete(String path) {
+        writes.put(normalize(path), "null");
+        return this;
+    }
+
+    public int size() {
+        return writes.size();
+    }
+
+    public boolean isEmpty() {
+        return writes.isEmpty();
+    }
+
+    public String toJson() {
+        StringBuilder body = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            if (body.length() > 1) body.append(',');
+            body.append(JSONObject.quote(entry.getKey())).append(':').append(entry.getValue());
+        }
+        return body.append('}').toString();
+    }
+
+    public Request toRequest() {
+        return new Request.Builder()
+                .url(FirebaseAuthService.getDatabaseUrl() + "/.json")
+                .patch(RequestBody.create(toJson(), FirebaseTransport.JSON))
+                .build();
+    }
+
+    public CompletableFuture<String> commitAsync() {
+        boolean touchesUsers = false;
+        for (String path : writes.keySet()) {
+            if (UserLookup.affects(path)) touchesUsers = true;
+        }
+        String body = toJson();
+        return FirebaseAuthService.invalidatingUsers(touchesUsers,
+                () -> FirebaseAuthService.patchAsync("/.json", body));
+    }
+
+    private static String normalize(String path) {
+        String p = path.startsWith("/") ? path.substring(1) : path;
+        return p.endsWith(".json") ? p.substring(0, p.length() - 5) : p;
+    }
+}
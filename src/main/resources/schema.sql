@@ -0,0 +1,64 @@
+-- Relational store used when config.properties sets BACKEND=jdbc (see services.JdbcBackend).
+-- Written for H2. JdbcStore runs these statements in order at startup; all of them
+-- are safe to run again against an existing database.
+
+-- Accounts and profiles. user_id is the numeric id of model.User; uid is the key
+-- the rest of the app uses, as with Firebase Authentication's localId.
+CREATE TABLE IF NOT EXISTS users (
+    user_id      INT AUTO_INCREMENT PRIMARY KEY,
+    uid          VARCHAR(64)  NOT NULL UNIQUE,
+    email        VARCHAR(255) UNIQUE,
+    username     VARCHAR(100),
+    name         VARCHAR(255),
+    display_name VARCHAR(255),
+    password     VARCHAR(255),
+    status       VARCHAR(20),
+    avatar       VARCHAR,
+    last_seen    BIGINT DEFAULT 0 NOT NULL,
+    -- Profile fields without a column of their own, as a JSON object
+    extra        VARCHAR
+);
+
+CREATE TABLE IF NOT EXISTS chat_groups (
+    group_id    VARCHAR(64) PRIMARY KEY,
+    name        VARCHAR(255),
+    description VARCHAR,
+    created_by  VARCHAR(255),
+    created_at  BIGINT DEFAULT 0 NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS group_members (
+    group_id VARCHAR(64)  NOT NULL REFERENCES chat_groups (group_id) ON DELETE CASCADE,
+    email    VARCHAR(255) NOT NULL,
+    PRIMARY KEY (group_id, email)
+);
+
+-- One row per message; msg_key is the database key (see KeyGenerator), so the
+-- primary key also serves the "$key" range queries used for paging.
+CREATE TABLE IF NOT EXISTS messages (
+    chat_id   VARCHAR(255) NOT NULL,
+    msg_key   VARCHAR(64)  NOT NULL,
+    ts        BIGINT       NOT NULL,
+    sender    VARCHAR(255),
+    recipient VARCHAR(255),
+    body      VARCHAR,
+    is_system BOOLEAN DEFAULT FALSE NOT NULL,
+    file_type VARCHAR(20),
+    file_name VARCHAR(1024),
+    file_url  VARCHAR,
+    file_size BIGINT DEFAULT 0 NOT NULL,
+    PRIMARY KEY (chat_id, msg_key)
+);
+
+-- Time range queries within a chat. H2 only walks an index in its declared
+-- direction, so the newest-first pages (limitToLast) get descending twins;
+-- with them every page query reads just its LIMIT rows instead of sorting.
+CREATE INDEX IF NOT EXISTS messages_by_time ON messages (chat_id, ts, msg_key);
+CREATE INDEX IF NOT EXISTS messages_by_time_desc ON messages (chat_id, ts DESC, msg_key DESC);
+CREATE INDEX IF NOT EXISTS messages_by_key_desc ON messages (chat_id, msg_key DESC);
+
+-- Everything outside users, groups and messages (e.g. temp_codes), as JSON per entry
+CREATE TABLE IF NOT EXISTS nodes (
+    node_path  VARCHAR(1024) PRIMARY KEY,
+    node_value VARCHAR NOT NULL
+);
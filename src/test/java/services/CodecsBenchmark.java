@@ -0,0 +1,77 @@
+package services;
+
+import model.Message;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Throughput of the message codec against the org.json tree it replaced, on one
+// /messages/{chatId} body. Run with:
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=services.CodecsBenchmark [-Dexec.args=50000]
+public class CodecsBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        Map<String, Message> messages = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            long ts = 1_700_000_000_000L + i * 1000L;
+            Message msg = i % 10 == 0
+                    ? new Message("ann@example.com", "bob@example.com", "", ts, false,
+                            "file", "photo" + i + ".jpg", "https://files.example/photo" + i + ".jpg", 120_000 + i)
+                    : new Message("ann@example.com", "bob@example.com", "Message number " + i + ", with some text", ts);
+            messages.put(ts + "-" + i, msg);
+        }
+        StringWriter out = new StringWriter();
+        Codecs.writeMap(out, messages, Codecs.MESSAGE);
+        String body = out.toString();
+        System.out.printf("%d messages, %d KB of JSON%n", count, body.length() >> 10);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            boolean report = round == ROUNDS;
+            measure("codec encode", count, body.length(), report, () -> {
+                StringWriter buffer = new StringWriter(body.length());
+                Codecs.writeMap(buffer, messages, Codecs.MESSAGE);
+                return buffer.getBuffer().length();
+            });
+            measure("codec decode", count, body.length(), report,
+                    () -> Codecs.readMap(new StringReader(body), Codecs.MESSAGE, null).size());
+            measure("org.json decode", count, body.length(), report, () -> decodeWithTree(body).size());
+        }
+    }
+
+    // What loadMessages did before the codecs: a full JSONObject tree, then opt* per field
+    private static Map<String, Message> decodeWithTree(String body) {
+        JSONObject json = new JSONObject(body);
+        Map<String, Message> messages = new LinkedHashMap<>();
+        for (String key : json.keySet()) {
+            JSONObject m = json.getJSONObject(key);
+            messages.put(key, new Message(m.optString("from"), m.optString("to"), m.optString("text"),
+                    m.optLong("timestamp"), m.optBoolean("isSystem"), m.optString("type", null),
+                    m.optString("fileName", null), m.optString("fileUrl", null), m.optLong("fileSize")));
+        }
+        return messages;
+    }
+
+    private interface Task {
+        int run() throws IOException;
+    }
+
+    private static void measure(String name, int count, int chars, boolean report, Task task) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        int result = task.run();
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        if (result <= 0) throw new IllegalStateException(name + " produced nothing");
+        if (!report) return;
+        System.out.printf("%-16s %8.1f ms  %10.0f msg/s  %7.1f MB/s  %6d B/msg allocated%n", name, nanos / 1e6,
+                count * 1e9 / nanos, chars * 1e9 / nanos / (1 << 20), allocated / count);
+    }
+}
@@ -0,0 +1,138 @@
+package services;
+
+import model.GroupInfo;
+import model.Message;
+import model.UserInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecsTest {
+
+    @Test
+    void textMessageRoundTrips() {
+        Message msg = new Message("a@x.com", "b@x.com", "hi \"there\"\n", 1700000000123L);
+        Message back = Codecs.MESSAGE.fromJson("k1", Codecs.MESSAGE.toJson(msg));
+        assertMessage(msg, back);
+    }
+
+    @Test
+    void fileMessageKeepsFileFields() {
+        Message msg = new Message("a@x.com", "b@x.com", "", 1700000000123L, false,
+                "file", "report.pdf", "https://files.example/report.pdf", 48213);
+        Message back = Codecs.MESSAGE.fromJson("k1", Codecs.MESSAGE.toJson(msg));
+        assertMessage(msg, back);
+    }
+
+    @Test
+    void systemMessageRoundTrips() {
+        Message msg = new Message("system", "group_g1", "Ann joined", 5, true);
+        assertMessage(msg, Codecs.MESSAGE.fromJson("k", Codecs.MESSAGE.toJson(msg)));
+    }
+
+    @Test
+    void messageSkipsUnknownFieldsAndKeepsDefaultsForNulls() {
+        Message msg = Codecs.MESSAGE.fromJson("k",
+                "{\"from\":null,\"extra\":{\"nested\":[1,2]},\"text\":\"t\",\"timestamp\":7,\"type\":null}");
+        assertEquals("", msg.from);
+        assertEquals("", msg.to);
+        assertEquals("t", msg.text);
+        assertEquals(7, msg.timestamp);
+        assertNull(msg.type);
+    }
+
+    @Test
+    void userInfoRoundTrips() {
+        UserInfo user = new UserInfo("ann@x.com", "Ann", "online", "https://a/p.png", 1234);
+        UserInfo back = Codecs.USER_INFO.fromJson("uid1", Codecs.USER_INFO.toJson(user));
+        assertEquals(user.email, back.email);
+        assertEquals(user.name, back.name);
+        assertEquals(user.status, back.status);
+        assertEquals(user.avatar, back.avatar);
+        assertEquals(user.lastSeen, back.lastSeen);
+    }
+
+    @Test
+    void userInfoNamesUsersWithoutDisplayName() {
+        UserInfo user = Codecs.USER_INFO.fromJson("uid1", "{\"email\":\"bob@x.com\",\"password\":\"secret\"}");
+        assertEquals("bob", user.name);
+        assertEquals("offline", user.status);
+    }
+
+    @Test
+    void recordsWithoutTimestampsDecodeTheSameEveryTime() {
+        String user = "{\"email\":\"bob@x.com\"}";
+        assertEquals(0, Codecs.USER_INFO.fromJson("uid1", user).lastSeen);
+        assertEquals(Codecs.USER_INFO.toJson(Codecs.USER_INFO.fromJson("uid1", user)),
+                Codecs.USER_INFO.toJson(Codecs.USER_INFO.fromJson("uid1", user)));
+        assertEquals(0, Codecs.GROUP_INFO.fromJson("g1", "{\"name\":\"Team\"}").createdAt);
+    }
+
+    @Test
+    void groupInfoRoundTripsWithKeyAsId() {
+        GroupInfo group = new GroupInfo("g1", "Team", "desc", Arrays.asList("a@x.com", "b@x.com"), "a@x.com", 99);
+        GroupInfo back = Codecs.GROUP_INFO.fromJson("g1", Codecs.GROUP_INFO.toJson(group));
+        assertEquals("g1", back.id);
+        assertEquals(group.name, back.name);
+        assertEquals(group.description, back.description);
+        assertEquals(group.members, back.members);
+        assertEquals(group.createdBy, back.createdBy);
+        assertEquals(group.createdAt, back.createdAt);
+    }
+
+    @Test
+    void readMapSkipsKeysUpToTheCursorAndNonObjects() throws IOException {
+        String body = "{\"a\":{\"text\":\"1\"},\"b\":{\"text\":\"2\"},\"c\":true,\"d\":{\"text\":\"4\"}}";
+        Map<String, Message> all = Codecs.readMap(new StringReader(body), Codecs.MESSAGE, null);
+        assertEquals(Arrays.asList("a", "b", "d"), Arrays.asList(all.keySet().toArray()));
+        Map<String, Message> after = Codecs.readMap(new StringReader(body), Codecs.MESSAGE, "b");
+        assertEquals(Arrays.asList("d"), Arrays.asList(after.keySet().toArray()));
+        assertEquals("4", after.get("d").text);
+    }
+
+    @Test
+    void readMapOfAnEmptyLocationIsEmpty() throws IOException {
+        assertTrue(Codecs.readMap(new StringReader("null"), Codecs.MESSAGE, null).isEmpty());
+    }
+
+    @Test
+    void writeMapIsTheInverseOfReadMap() throws IOException {
+        Map<String, Message> messages = new LinkedHashMap<>();
+        messages.put("k1", new Message("a", "b", "one", 1));
+        messages.put("k2", new Message("b", "a", "two", 2));
+        StringWriter out = new StringWriter();
+        Codecs.writeMap(out, messages, Codecs.MESSAGE);
+        Map<String, Message> back = Codecs.readMap(new StringReader(out.toString()), Codecs.MESSAGE, null);
+        assertEquals(messages.keySet(), back.keySet());
+        for (String key : messages.keySet()) {
+            assertMessage(messages.get(key), back.get(key));
+        }
+    }
+
+    @Test
+    void registryFindsEachModelType() {
+        assertSame(Codecs.MESSAGE, Codecs.of(Message.class));
+        assertSame(Codecs.USER_INFO, Codecs.of(UserInfo.class));
+        assertSame(Codecs.GROUP_INFO, Codecs.of(GroupInfo.class));
+        assertThrows(IllegalArgumentException.class, () -> Codecs.of(String.class));
+    }
+
+    private static void assertMessage(Message expected, Message actual) {
+        assertEquals(expected.from, actual.from);
+        assertEquals(expected.to, actual.to);
+        assertEquals(expected.text == null ? "" : expected.text, actual.text);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.isSystem, actual.isSystem);
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.fileName, actual.fileName);
+        assertEquals(expected.fileUrl, actual.fileUrl);
+        assertEquals(expected.fileSize, actual.fileSize);
+    }
+}
@@ -0,0 +1,109 @@
+package services;
+
+import org.json.JSONObject;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Throughput of JdbcStore against an in-memory H2 database with the packaged schema:
+// messages written per second in the batches a multi-path PATCH produces, then history
+// pages read per second (limitToLast with a random "$key" cursor, as when scrolling up)
+// with 1..N threads sharing the pool. Plain threads rather than JMH, so it runs from the
+// test classpath:
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=services.JdbcBenchmark [-Dexec.args="200000 20"]
+public class JdbcBenchmark {
+    private static final int WRITE_BATCH = 100;
+    private static final int PAGE = 50;
+    private static final int PAGES_PER_THREAD = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int chats = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        JdbcPool pool = new JdbcPool("jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1", "sa", "", maxThreads, 64);
+        JdbcStore store = new JdbcStore(pool);
+        store.applySchema();
+
+        List<List<String>> keys = new ArrayList<>();
+        for (int chat = 0; chat < chats; chat++) {
+            keys.add(new ArrayList<>());
+        }
+        long begin = System.nanoTime();
+        for (int written = 0; written < messages; written += WRITE_BATCH) {
+            int chat = (written / WRITE_BATCH) % chats;
+            Map<String, JSONObject> batch = new LinkedHashMap<>();
+            for (int i = 0; i < WRITE_BATCH && written + i < messages; i++) {
+                String key = KeyGenerator.next();
+                batch.put(key, message(chat, written + i));
+                keys.get(chat).add(key);
+            }
+            store.write(c -> {
+                store.putMessages(c, "chat" + chat, batch);
+                return null;
+            });
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.printf("wrote %d messages in %d chats: %.1f ms, %.0f msg/s%n",
+                messages, chats, nanos / 1e6, messages * 1e9 / nanos);
+
+        // Warm-up, so the first measured rows are not the interpreter
+        for (int i = 0; i < 3; i++) {
+            readPages(store, keys, 2, false);
+        }
+        System.out.printf("%7s %12s %14s %14s%n", "threads", "ms", "pages/s", "msg/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            readPages(store, keys, threads, true);
+        }
+    }
+
+    private static JSONObject message(int chat, int n) {
+        return new JSONObject()
+                .put("from", "user" + chat + "@example.com")
+                .put("to", "chat" + chat)
+                .put("text", "Message number " + n + " with a bit of text to make it a realistic size")
+                .put("timestamp", 1_700_000_000_000L + n);
+    }
+
+    private static void readPages(JdbcStore store, List<List<String>> keys, int threads, boolean report) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long[] rows = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < PAGES_PER_THREAD; i++) {
+                        int chat = random.nextInt(keys.size());
+                        List<String> chatKeys = keys.get(chat);
+                        String cursor = chatKeys.get(random.nextInt(chatKeys.size()));
+                        rows[id] += store.read(c -> store.messagesByKey(c, "chat" + chat, null, cursor, PAGE, true)).size();
+                    }
+                } catch (InterruptedException | SQLException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        if (failure.get() != null) throw failure.get();
+        if (report) {
+            long pages = (long) threads * PAGES_PER_THREAD;
+            long total = 0;
+            for (long n : rows) total += n;
+            System.out.printf("%7d %12.1f %14.0f %14.0f%n", threads, nanos / 1e6, pages * 1e9 / nanos, total * 1e9 / nanos);
+        }
+    }
+}
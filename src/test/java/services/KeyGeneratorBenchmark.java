@@ -0,0 +1,76 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+// Keys per second from KeyGenerator.next() with 1..N threads calling it at once, and
+// a check that every key of the run is unique and increases within each thread.
+// Plain threads rather than JMH, so it runs from the test classpath:
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=services.KeyGeneratorBenchmark [-Dexec.args=200000]
+public class KeyGeneratorBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int keysPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxThreads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        // Warm-up, so the first measured rows are not the interpreter
+        for (int i = 0; i < 5; i++) {
+            run(2, keysPerThread, false);
+        }
+        System.out.printf("%7s %12s %14s%n", "threads", "ms", "keys/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            run(threads, keysPerThread, true);
+        }
+    }
+
+    private static void run(int threads, int keysPerThread, boolean report) throws InterruptedException {
+        String[][] keys = new String[threads][keysPerThread];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String[] mine = keys[t];
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] = KeyGenerator.next();
+                }
+                done.countDown();
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        verify(keys);
+        if (report) {
+            long total = (long) threads * keysPerThread;
+            System.out.printf("%7d %12.1f %14.0f%n", threads, nanos / 1e6, total * 1e9 / nanos);
+        }
+    }
+
+    private static void verify(String[][] keys) {
+        Set<String> seen = new HashSet<>();
+        for (String[] perThread : keys) {
+            for (int i = 0; i < perThread.length; i++) {
+                if (!seen.add(perThread[i])) {
+                    throw new IllegalStateException("Duplicate key " + perThread[i]);
+                }
+                if (i > 0 && perThread[i].compareTo(perThread[i - 1]) <= 0) {
+                    throw new IllegalStateException("Out of order: " + perThread[i - 1] + " then " + perThread[i]);
+                }
+            }
+        }
+    }
+}
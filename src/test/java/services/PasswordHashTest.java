@@ -0,0 +1,31 @@
+package services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashTest {
+
+    @Test
+    void hashMatchesOnlyItsPassword() {
+        String stored = PasswordHash.hash("s3cret!");
+        assertTrue(stored.startsWith("pbkdf2$"));
+        assertFalse(stored.contains("s3cret!"));
+        assertTrue(PasswordHash.matches("s3cret!", stored));
+        assertFalse(PasswordHash.matches("s3cret", stored));
+        assertFalse(PasswordHash.matches("", stored));
+    }
+
+    @Test
+    void samePasswordGetsADifferentSalt() {
+        assertNotEquals(PasswordHash.hash("pw"), PasswordHash.hash("pw"));
+    }
+
+    @Test
+    void plaintextAndMalformedValuesNeverMatch() {
+        assertFalse(PasswordHash.matches("pw", "pw"));
+        assertFalse(PasswordHash.matches("pw", null));
+        assertFalse(PasswordHash.matches("pw", "pbkdf2$x$y$z"));
+        assertFalse(PasswordHash.matches("pw", "pbkdf2$1000$!!$!!"));
+    }
+}